@@ -0,0 +1,276 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.property.ValueUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Transactionable;
+import be.nabu.libs.services.jdbc.JDBCServiceInstance.ConnectionTransactionable;
+import be.nabu.libs.services.jdbc.api.DataSourceWithDialectProviderArtifact;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.properties.TimezoneProperty;
+
+/**
+ * Streams rows into a table using the postgresql "copy from stdin" protocol, this is a lot faster than a batch of inserts for large amounts of data.
+ * The driver is accessed through reflection so we don't need a compile time dependency on it, if the connection is not a postgresql connection, the copy is not supported.
+ * The rows are encoded in the text format straight into a fixed buffer which is flushed to the connection whenever it is full.
+ */
+public class BulkCopy {
+
+	// the minimum amount of rows before we switch from a batch insert to a copy, 0 or less disables the copy
+	public static final Integer THRESHOLD = Integer.parseInt(System.getProperty("be.nabu.jdbc.copy.threshold", "1000"));
+	private static final int BUFFER_SIZE = 65536;
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private Object copyIn;
+	private Method writeToCopy;
+	
+	public static boolean isEnabled(int rows) {
+		return THRESHOLD > 0 && rows >= THRESHOLD;
+	}
+	
+	/**
+	 * Only simple single valued columns can be copied, anything else has to go through the regular insert.
+	 */
+	public static boolean isSupported(List<Element<?>> columns) {
+		for (Element<?> column : columns) {
+			if (!(column.getType() instanceof SimpleType) || column.getType().isList(column.getProperties())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Copies the contents into the table, the connection is shared with the jdbc services in the same transaction.
+	 * Returns false if the connection does not support a copy, in which case nothing was written.
+	 */
+	public static boolean copy(ExecutionContext executionContext, String connectionId, String transactionId, String table, List<Element<?>> columns, List<String> columnNames, List<ComplexContent> contents) throws SQLException {
+		DataSourceWithDialectProviderArtifact dataSourceProvider = executionContext.getServiceContext().getResolver(DataSourceWithDialectProviderArtifact.class).resolve(connectionId);
+		if (dataSourceProvider == null) {
+			return false;
+		}
+		Connection connection = null;
+		boolean opened = false;
+		try {
+			if (!dataSourceProvider.isAutoCommit()) {
+				Transactionable transactionable = executionContext.getTransactionContext().get(transactionId, connectionId);
+				if (transactionable instanceof ConnectionTransactionable) {
+					connection = ((ConnectionTransactionable) transactionable).getConnection();
+				}
+				else if (transactionable == null) {
+					connection = dataSourceProvider.getDataSource().getConnection();
+					opened = true;
+				}
+				else {
+					return false;
+				}
+			}
+			else {
+				connection = dataSourceProvider.getDataSource().getConnection();
+			}
+			Object copyManager = getCopyManager(connection);
+			if (copyManager == null) {
+				if (opened) {
+					connection.close();
+				}
+				return false;
+			}
+			// only register the connection once we are sure we will use it
+			if (opened) {
+				executionContext.getTransactionContext().add(transactionId, new ConnectionTransactionable(connectionId, connection));
+			}
+			StringBuilder sql = new StringBuilder("copy " + table + " (");
+			for (int i = 0; i < columnNames.size(); i++) {
+				if (i > 0) {
+					sql.append(", ");
+				}
+				sql.append(columnNames.get(i));
+			}
+			sql.append(") from stdin");
+			new BulkCopy().write(copyManager, sql.toString(), columns, contents);
+			return true;
+		}
+		finally {
+			if (dataSourceProvider.isAutoCommit() && connection != null) {
+				try {
+					connection.close();
+				}
+				catch (SQLException e) {
+					// do nothing
+				}
+			}
+		}
+	}
+	
+	private static Object getCopyManager(Connection connection) throws SQLException {
+		try {
+			ClassLoader loader = connection.getClass().getClassLoader();
+			Class<?> pgConnection = Class.forName("org.postgresql.PGConnection", true, loader == null ? Thread.currentThread().getContextClassLoader() : loader);
+			if (!connection.isWrapperFor(pgConnection)) {
+				return null;
+			}
+			return pgConnection.getMethod("getCopyAPI").invoke(connection.unwrap(pgConnection));
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+		catch (Exception e) {
+			throw toSQLException(e);
+		}
+	}
+	
+	private void write(Object copyManager, String sql, List<Element<?>> columns, List<ComplexContent> contents) throws SQLException {
+		try {
+			ClassLoader loader = copyManager.getClass().getClassLoader();
+			Class<?> copyInClass = Class.forName("org.postgresql.copy.CopyIn", true, loader);
+			copyIn = copyManager.getClass().getMethod("copyIn", String.class).invoke(copyManager, sql);
+			writeToCopy = copyInClass.getMethod("writeToCopy", byte[].class, int.class, int.class);
+			try {
+				SimpleDateFormat [] formatters = new SimpleDateFormat[columns.size()];
+				for (ComplexContent content : contents) {
+					for (int i = 0; i < columns.size(); i++) {
+						if (i > 0) {
+							write((byte) '\t');
+						}
+						Element<?> column = columns.get(i);
+						Object value = content.get(column.getName());
+						if (value == null) {
+							write((byte) '\\');
+							write((byte) 'N');
+						}
+						else if (value instanceof Boolean) {
+							write((byte) ((Boolean) value ? 't' : 'f'));
+						}
+						else if (value instanceof Date) {
+							if (formatters[i] == null) {
+								formatters[i] = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSXXX");
+								TimeZone timezone = ValueUtils.getValue(TimezoneProperty.getInstance(), column.getProperties());
+								formatters[i].setTimeZone(timezone == null ? TimeZone.getDefault() : timezone);
+							}
+							writeEscaped(formatters[i].format((Date) value));
+						}
+						else if (value instanceof byte[]) {
+							// bytea in hex format, the backslash itself has to be escaped in the text format
+							write((byte) '\\');
+							write((byte) '\\');
+							write((byte) 'x');
+							for (byte single : (byte[]) value) {
+								write(HEX[(single >> 4) & 0xf]);
+								write(HEX[single & 0xf]);
+							}
+						}
+						else if (value instanceof Enum) {
+							writeEscaped(((Enum<?>) value).name());
+						}
+						else if (value instanceof CharSequence || value instanceof Number) {
+							writeEscaped(value.toString());
+						}
+						else {
+							String converted = ConverterFactory.getInstance().getConverter().convert(value, String.class);
+							if (converted == null) {
+								throw new IllegalArgumentException("Can not convert the value of " + column.getName() + " to a string: " + value);
+							}
+							writeEscaped(converted);
+						}
+					}
+					write((byte) '\n');
+				}
+				flush();
+				copyInClass.getMethod("endCopy").invoke(copyIn);
+			}
+			catch (Exception e) {
+				// make sure the connection is usable again
+				if ((Boolean) copyInClass.getMethod("isActive").invoke(copyIn)) {
+					copyInClass.getMethod("cancelCopy").invoke(copyIn);
+				}
+				throw e;
+			}
+		}
+		catch (Exception e) {
+			throw toSQLException(e);
+		}
+	}
+	
+	// encodes the characters as utf-8 straight into the buffer, escaping the characters that have a meaning in the text format
+	private void writeEscaped(CharSequence value) throws Exception {
+		for (int i = 0; i < value.length(); i++) {
+			char character = value.charAt(i);
+			switch (character) {
+				case '\\': write((byte) '\\'); write((byte) '\\'); break;
+				case '\t': write((byte) '\\'); write((byte) 't'); break;
+				case '\n': write((byte) '\\'); write((byte) 'n'); break;
+				case '\r': write((byte) '\\'); write((byte) 'r'); break;
+				default:
+					if (character < 0x80) {
+						write((byte) character);
+					}
+					else if (character < 0x800) {
+						write((byte) (0xc0 | (character >> 6)));
+						write((byte) (0x80 | (character & 0x3f)));
+					}
+					else if (Character.isHighSurrogate(character) && i < value.length() - 1 && Character.isLowSurrogate(value.charAt(i + 1))) {
+						int codePoint = Character.toCodePoint(character, value.charAt(++i));
+						write((byte) (0xf0 | (codePoint >> 18)));
+						write((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+						write((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+						write((byte) (0x80 | (codePoint & 0x3f)));
+					}
+					else {
+						write((byte) (0xe0 | (character >> 12)));
+						write((byte) (0x80 | ((character >> 6) & 0x3f)));
+						write((byte) (0x80 | (character & 0x3f)));
+					}
+			}
+		}
+	}
+	
+	private void write(byte value) throws Exception {
+		if (position == buffer.length) {
+			flush();
+		}
+		buffer[position++] = value;
+	}
+	
+	private void flush() throws Exception {
+		if (position > 0) {
+			writeToCopy.invoke(copyIn, buffer, 0, position);
+			position = 0;
+		}
+	}
+	
+	private static SQLException toSQLException(Exception e) {
+		Throwable cause = e instanceof InvocationTargetException ? ((InvocationTargetException) e).getTargetException() : e;
+		return cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.eai.repository.EAIResourceRepository;
+import be.nabu.libs.artifacts.api.DataSourceProviderArtifact;
+
+/**
+ * The features of the database behind a data source as reported by the driver itself.
+ * This is used instead of guessing based on the dialect when the generated sql depends on database specific behavior.
+ * The metadata is fetched once per data source.
+ */
+public class DatabaseFeatures {
+
+	private static Map<String, DatabaseFeatures> features = new ConcurrentHashMap<String, DatabaseFeatures>();
+	
+	private String productName;
+	private boolean nullsSortedLow, nullsSortedAtStart, nullsSortedAtEnd;
+	
+	/**
+	 * Returns null if the data source can not be resolved
+	 */
+	public static DatabaseFeatures get(String dataSourceId) throws SQLException {
+		if (dataSourceId == null) {
+			return null;
+		}
+		DatabaseFeatures result = features.get(dataSourceId);
+		if (result == null) {
+			Object artifact = EAIResourceRepository.getInstance().resolve(dataSourceId);
+			if (!(artifact instanceof DataSourceProviderArtifact)) {
+				return null;
+			}
+			Connection connection = ((DataSourceProviderArtifact) artifact).getDataSource().getConnection();
+			try {
+				DatabaseMetaData metaData = connection.getMetaData();
+				result = new DatabaseFeatures();
+				result.productName = metaData.getDatabaseProductName();
+				result.nullsSortedLow = metaData.nullsAreSortedLow();
+				result.nullsSortedAtStart = metaData.nullsAreSortedAtStart();
+				result.nullsSortedAtEnd = metaData.nullsAreSortedAtEnd();
+			}
+			finally {
+				connection.close();
+			}
+			features.put(dataSourceId, result);
+		}
+		return result;
+	}
+	
+	public String getProductName() {
+		return productName;
+	}
+	
+	/**
+	 * Checks the product name reported by the driver, e.g. "PostgreSQL", "H2", "Oracle", "MySQL"
+	 */
+	public boolean isProduct(String name) {
+		return productName != null && productName.toLowerCase().startsWith(name.toLowerCase());
+	}
+	
+	/**
+	 * Whether null values come after all other values when sorting in the given direction
+	 */
+	public boolean isNullLast(boolean descending) {
+		if (nullsSortedAtEnd) {
+			return true;
+		}
+		else if (nullsSortedAtStart) {
+			return false;
+		}
+		else if (nullsSortedLow) {
+			return descending;
+		}
+		// sorting nulls high is the most common behavior (and our assumption if the driver does not report anything)
+		return !descending;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import be.nabu.eai.repository.EAIResourceRepository;
+import be.nabu.libs.artifacts.api.Artifact;
+import be.nabu.libs.services.jdbc.JDBCService;
+
+/**
+ * The generated crud services (select, update, delete...) only depend on the "shape" of the query (the type, the generated sql, the parameter typing...)
+ * Building them means generating the input structure, so we reuse fully built services for the same shape.
+ * In development mode types can change at any time so we don't cache there.
+ * Anonymous types have no identity to capture in the key, different types with the same sql would share a service (and its parameter typing) so they are never cached.
+ * The key starts with the id of the artifact it was generated for, when that artifact is reloaded the cached service is dropped.
+ */
+public class GeneratedServiceCache {
+	
+	public static final String ANONYMOUS = "$anonymous";
+	
+	public static final Integer MAX_SIZE = Integer.parseInt(System.getProperty("be.nabu.jdbc.generated.cache.size", "1000"));
+	
+	private static GeneratedServiceCache instance = new GeneratedServiceCache(MAX_SIZE);
+	
+	// access ordered so we evict the least recently used service
+	private LinkedHashMap<String, CachedService> services;
+	private int maxSize;
+	
+	public static GeneratedServiceCache getInstance() {
+		return instance;
+	}
+	
+	public GeneratedServiceCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.services = new LinkedHashMap<String, CachedService>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedService> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	public boolean isEnabled() {
+		return maxSize > 0 && !EAIResourceRepository.isDevelopment();
+	}
+	
+	public JDBCService get(String key) {
+		if (!isEnabled() || !isCacheable(key)) {
+			return null;
+		}
+		CachedService cached;
+		synchronized(services) {
+			cached = services.get(key);
+		}
+		if (cached == null) {
+			return null;
+		}
+		// the artifact was reloaded, the service might no longer match it
+		if (cached.owner != getOwner(key)) {
+			synchronized(services) {
+				if (services.get(key) == cached) {
+					services.remove(key);
+				}
+			}
+			return null;
+		}
+		return cached.service;
+	}
+	
+	/**
+	 * Returns the service that ends up being cached, if another thread beat us to it, we use that one instead
+	 */
+	public JDBCService put(String key, JDBCService service) {
+		if (!isEnabled() || !isCacheable(key)) {
+			return service;
+		}
+		Artifact owner = getOwner(key);
+		synchronized(services) {
+			CachedService existing = services.get(key);
+			if (existing != null && existing.owner == owner) {
+				return existing.service;
+			}
+			services.put(key, new CachedService(service, owner));
+		}
+		return service;
+	}
+	
+	private static boolean isCacheable(String key) {
+		return !key.startsWith(ANONYMOUS);
+	}
+	
+	/**
+	 * The key starts with the id of the type (or connection) it was generated for, ended by either the service suffix or the sql
+	 */
+	private static Artifact getOwner(String key) {
+		int index = key.indexOf('\n');
+		int suffix = key.indexOf(':');
+		if (suffix >= 0 && (index < 0 || suffix < index)) {
+			index = suffix;
+		}
+		return EAIResourceRepository.getInstance().resolve(index < 0 ? key : key.substring(0, index));
+	}
+	
+	public void clear() {
+		synchronized(services) {
+			services.clear();
+		}
+	}
+	
+	private static class CachedService {
+		private JDBCService service;
+		// the artifact as it was when we generated the service, null if it is not managed by the repository
+		private Artifact owner;
+		
+		public CachedService(JDBCService service, Artifact owner) {
+			this.service = service;
+			this.owner = owner;
+		}
+	}
+}
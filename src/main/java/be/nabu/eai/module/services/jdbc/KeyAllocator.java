@@ -0,0 +1,123 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.nabu.libs.services.api.ServiceException;
+
+/**
+ * Assigns primary keys on the client so we don't need the generated keys from the database (which rules out most bulk strategies).
+ * The strategy is configured per type id or table name with be.nabu.jdbc.keys, for example: "my.types.order=sequence:order_seq:500;invoice=sequence:invoice_seq;event=uuid7"
+ * If be.nabu.jdbc.keys.uuid7 is set, all uuid primary keys without an explicit strategy get a time ordered uuid.
+ * Sequence values are fetched in blocks in a single round trip, the block size defaults to be.nabu.jdbc.keys.block.
+ * Handing out values from a block is lock free, only fetching a new block is synchronized (per sequence).
+ */
+public class KeyAllocator {
+
+	public static final Integer BLOCK_SIZE = Integer.parseInt(System.getProperty("be.nabu.jdbc.keys.block", "100"));
+	public static final Boolean UUID7 = Boolean.parseBoolean(System.getProperty("be.nabu.jdbc.keys.uuid7", "false"));
+	public static final Map<String, String> STRATEGIES = parse(System.getProperty("be.nabu.jdbc.keys"));
+	
+	public interface SequenceFetcher {
+		public long [] fetch(String sequence, int amount) throws ServiceException;
+	}
+	
+	private static class Block {
+		private long [] values;
+		private AtomicInteger position = new AtomicInteger();
+		private Block(long [] values) {
+			this.values = values;
+		}
+	}
+	
+	private static KeyAllocator instance = new KeyAllocator();
+	
+	private ConcurrentHashMap<String, Block> blocks = new ConcurrentHashMap<String, Block>();
+	private ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+	
+	public static KeyAllocator getInstance() {
+		return instance;
+	}
+	
+	public String getStrategy(String typeId, String table) {
+		String strategy = typeId == null ? null : STRATEGIES.get(typeId);
+		if (strategy == null && table != null) {
+			strategy = STRATEGIES.get(table.toLowerCase());
+		}
+		return strategy;
+	}
+	
+	/**
+	 * Allocates the amount of values from the sequence, the connection id is part of the key as the same sequence name can exist in multiple databases.
+	 */
+	public long [] allocate(String connectionId, String sequence, int amount, int blockSize, SequenceFetcher fetcher) throws ServiceException {
+		String key = connectionId + ":" + sequence;
+		long [] result = new long[amount];
+		int filled = 0;
+		while (filled < amount) {
+			Block block = blocks.get(key);
+			if (block != null && block.position.get() < block.values.length) {
+				int start = block.position.getAndAdd(amount - filled);
+				if (start < block.values.length) {
+					int available = Math.min(amount - filled, block.values.length - start);
+					System.arraycopy(block.values, start, result, filled, available);
+					filled += available;
+					continue;
+				}
+			}
+			refill(key, block, sequence, Math.max(blockSize, amount - filled), fetcher);
+		}
+		return result;
+	}
+	
+	private void refill(String key, Block exhausted, String sequence, int amount, SequenceFetcher fetcher) throws ServiceException {
+		Object lock = locks.get(key);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = locks.putIfAbsent(key, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		synchronized(lock) {
+			// someone else already refilled it
+			Block current = blocks.get(key);
+			if (current != exhausted && current != null && current.position.get() < current.values.length) {
+				return;
+			}
+			blocks.put(key, new Block(fetcher.fetch(sequence, amount)));
+		}
+	}
+	
+	private static Map<String, String> parse(String value) {
+		Map<String, String> strategies = new HashMap<String, String>();
+		if (value != null && !value.trim().isEmpty()) {
+			for (String part : value.split("[\\s]*;[\\s]*")) {
+				int index = part.indexOf('=');
+				if (index > 0) {
+					strategies.put(part.substring(0, index).trim(), part.substring(index + 1).trim());
+				}
+			}
+		}
+		return strategies;
+	}
+}
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import be.nabu.libs.services.api.Transactionable;
+
+/**
+ * A forward only list on top of a lazily fetched result (e.g. a result set), memory stays flat no matter how many rows come back.
+ * Rows are fetched when they are requested and they are not kept once they are handed out, this means:
+ * - the list can be iterated only once
+ * - get(i) only works for the next row or the current one again, so a sequential loop by index works as well
+ * - size() is not known until the result is drained
+ * Anything else (random access, a second iteration, size()...) fails with an UnsupportedOperationException instead of silently buffering everything.
+ * If you need a regular list, don't select lazily.
+ * The original result is closed once it is drained, when the list is closed or when the transaction it is registered in ends.
+ */
+public class LazyList<T> extends AbstractList<T> implements Closeable {
+
+	private Iterator<T> iterator;
+	// the original result, this is what holds on to the statement and connection
+	private Object source;
+	private T current;
+	private int position = -1;
+	private boolean closed, iterated;
+	
+	public LazyList(Iterable<T> iterable) {
+		this(iterable, iterable);
+	}
+	
+	public LazyList(Iterable<T> iterable, Object source) {
+		this.source = source;
+		this.iterator = iterable.iterator();
+	}
+	
+	@Override
+	public synchronized T get(int index) {
+		if (index == position) {
+			return current;
+		}
+		else if (index == position + 1) {
+			if (!hasMore()) {
+				throw new IndexOutOfBoundsException("No element at index: " + index);
+			}
+			current = iterator.next();
+			position++;
+			return current;
+		}
+		else if (index < 0) {
+			throw new IndexOutOfBoundsException("No element at index: " + index);
+		}
+		throw new UnsupportedOperationException("The lazy result is forward only, can not access index " + index + " at position " + position);
+	}
+
+	@Override
+	public int size() {
+		throw new UnsupportedOperationException("The lazy result is forward only, the size is not known until it is drained");
+	}
+	
+	@Override
+	public synchronized boolean isEmpty() {
+		return position < 0 && !hasMore();
+	}
+
+	@Override
+	public synchronized Iterator<T> iterator() {
+		if (iterated || position >= 0) {
+			throw new UnsupportedOperationException("The lazy result is forward only, it can only be iterated once");
+		}
+		iterated = true;
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				synchronized(LazyList.this) {
+					return hasMore();
+				}
+			}
+			@Override
+			public T next() {
+				synchronized(LazyList.this) {
+					if (!hasMore()) {
+						throw new NoSuchElementException();
+					}
+					return get(position + 1);
+				}
+			}
+		};
+	}
+	
+	// the default implementation would iterate over the result
+	@Override
+	public String toString() {
+		return "LazyList[position=" + position + ", closed=" + closed + "]";
+	}
+	
+	// once drained, we release the underlying resources as soon as possible
+	private boolean hasMore() {
+		if (closed) {
+			return false;
+		}
+		if (iterator.hasNext()) {
+			return true;
+		}
+		try {
+			close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Could not close the lazy result", e);
+		}
+		return false;
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			current = null;
+			try {
+				if (iterator instanceof AutoCloseable) {
+					((AutoCloseable) iterator).close();
+				}
+				if (source instanceof AutoCloseable) {
+					((AutoCloseable) source).close();
+				}
+				// not all results advertise that they can be closed
+				else if (source != null) {
+					Method method = getCloseMethod(source.getClass());
+					if (method != null) {
+						method.invoke(source);
+					}
+				}
+			}
+			catch (IOException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
+	}
+	
+	private static Method getCloseMethod(Class<?> clazz) {
+		try {
+			return clazz.getMethod("close");
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Register this in the transaction the result was fetched in, it will close the list when the transaction ends
+	 */
+	public Transactionable asTransactionable() {
+		final String id = UUID.randomUUID().toString();
+		return new Transactionable() {
+			@Override
+			public String getId() {
+				return id;
+			}
+			@Override
+			public void start() {
+				// do nothing
+			}
+			@Override
+			public void commit() {
+				closeInTransaction();
+			}
+			@Override
+			public void rollback() {
+				closeInTransaction();
+			}
+		};
+	}
+	
+	private void closeInTransaction() {
+		try {
+			close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Could not close the lazy result", e);
+		}
+	}
+}
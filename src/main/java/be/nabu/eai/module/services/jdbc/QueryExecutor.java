@@ -0,0 +1,81 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The executor used to run independent queries in parallel (e.g. a page and its total count).
+ * The amount of queries that run at the same time is bounded by be.nabu.jdbc.executor.threads, setting it to 0 disables parallel execution altogether.
+ * By default those run on virtual threads if the runtime supports them, otherwise on daemon platform threads.
+ */
+public class QueryExecutor {
+	
+	public static final Integer THREADS = Integer.parseInt(System.getProperty("be.nabu.jdbc.executor.threads", "" + Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+	public static final Boolean VIRTUAL = Boolean.parseBoolean(System.getProperty("be.nabu.jdbc.executor.virtual", "true"));
+	
+	private static volatile ExecutorService executor;
+	
+	public static boolean isEnabled() {
+		return THREADS > 0 || executor != null;
+	}
+	
+	public static ExecutorService getExecutor() {
+		if (executor == null && isEnabled()) {
+			synchronized(QueryExecutor.class) {
+				if (executor == null) {
+					executor = newExecutor();
+				}
+			}
+		}
+		return executor;
+	}
+	
+	// allows you to plug in a managed executor
+	public static void setExecutor(ExecutorService executor) {
+		QueryExecutor.executor = executor;
+	}
+	
+	private static ExecutorService newExecutor() {
+		if (VIRTUAL) {
+			try {
+				// only available as of java 21: Thread.ofVirtual().name("jdbc-query-", 0).factory()
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "jdbc-query-", 0l);
+				ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+				// the pool bounds the amount of concurrent queries, virtual threads are cheap to keep around
+				return Executors.newFixedThreadPool(THREADS, factory);
+			}
+			catch (Exception e) {
+				// not supported, fall back to platform threads
+			}
+		}
+		return Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private int counter;
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jdbc-query-" + counter++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
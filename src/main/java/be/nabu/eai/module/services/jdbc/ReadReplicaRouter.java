@@ -0,0 +1,168 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.jdbc.api.DynamicDataSourceResolver;
+
+/**
+ * Routes reads to the read replicas of a data source, the replica with the least outstanding requests wins.
+ * The replicas are configured with be.nabu.jdbc.replicas, for example: "my.primary=my.replica1,my.replica2;my.other=my.replica3"
+ * Replicas can lag behind the primary so only reads that do not need to see recent writes should be routed.
+ */
+public class ReadReplicaRouter {
+
+	public static final Map<String, List<String>> REPLICAS = parse(System.getProperty("be.nabu.jdbc.replicas"));
+	
+	private static ReadReplicaRouter instance = new ReadReplicaRouter();
+	
+	private Map<String, List<String>> replicas;
+	private DynamicDataSourceResolver resolver;
+	private ConcurrentHashMap<String, AtomicInteger> outstanding = new ConcurrentHashMap<String, AtomicInteger>();
+	// used to spread the load over replicas with the same amount of outstanding requests
+	private AtomicInteger rotation = new AtomicInteger();
+	
+	public ReadReplicaRouter() {
+		this(REPLICAS, new RepositoryDataSourceResolver());
+	}
+	
+	ReadReplicaRouter(Map<String, List<String>> replicas, DynamicDataSourceResolver resolver) {
+		this.replicas = replicas;
+		this.resolver = resolver;
+	}
+	
+	public static ReadReplicaRouter getInstance() {
+		return instance;
+	}
+	
+	public boolean isEnabled() {
+		return !replicas.isEmpty();
+	}
+	
+	/**
+	 * The data source that would handle the given service id without routing
+	 */
+	public String getPrimary(String forId) {
+		return resolver.getDataSourceId(forId);
+	}
+	
+	/**
+	 * Returns the replica that should handle a read for the given service id, or null if the read should go to the primary.
+	 * Every replica that is returned must be released once the read is done.
+	 */
+	public String acquire(String forId) {
+		if (!isEnabled()) {
+			return null;
+		}
+		String primary = getPrimary(forId);
+		List<String> replicas = primary == null ? null : this.replicas.get(primary);
+		if (replicas == null || replicas.isEmpty()) {
+			return null;
+		}
+		int start = Math.abs(rotation.getAndIncrement() % replicas.size());
+		String least = null;
+		AtomicInteger leastCounter = null;
+		for (int i = 0; i < replicas.size(); i++) {
+			String replica = replicas.get((start + i) % replicas.size());
+			AtomicInteger counter = getCounter(replica);
+			if (leastCounter == null || counter.get() < leastCounter.get()) {
+				least = replica;
+				leastCounter = counter;
+			}
+		}
+		leastCounter.incrementAndGet();
+		return least;
+	}
+	
+	/**
+	 * Runs a read on a replica if it is not bound to an explicit connection or transaction and the primary is not open in the default transaction.
+	 * Otherwise the read runs on the connection it asked for, null meaning the default one.
+	 */
+	public <T> T read(String forId, String connectionId, String transactionId, Read<T> read) throws ServiceException {
+		String replica = null;
+		if (isEnabled() && connectionId == null && transactionId == null) {
+			String primary = getPrimary(forId);
+			// once the default transaction has written to the primary, the reads must see those changes
+			if (primary != null && !read.isOpen(primary)) {
+				replica = acquire(forId);
+			}
+		}
+		if (replica == null) {
+			return read.run(connectionId);
+		}
+		try {
+			return read.run(replica);
+		}
+		finally {
+			release(replica);
+		}
+	}
+	
+	public void release(String replica) {
+		AtomicInteger counter = outstanding.get(replica);
+		if (counter != null) {
+			counter.decrementAndGet();
+		}
+	}
+	
+	private AtomicInteger getCounter(String replica) {
+		AtomicInteger counter = outstanding.get(replica);
+		if (counter == null) {
+			AtomicInteger newCounter = new AtomicInteger();
+			counter = outstanding.putIfAbsent(replica, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+	
+	public interface Read<T> {
+		/**
+		 * Whether the default transaction already has a connection open to the given data source
+		 */
+		public boolean isOpen(String dataSourceId);
+		public T run(String connectionId) throws ServiceException;
+	}
+	
+	private static Map<String, List<String>> parse(String value) {
+		Map<String, List<String>> replicas = new HashMap<String, List<String>>();
+		if (value != null && !value.trim().isEmpty()) {
+			for (String part : value.split("[\\s]*;[\\s]*")) {
+				int index = part.indexOf('=');
+				if (index > 0) {
+					List<String> list = new ArrayList<String>();
+					for (String replica : part.substring(index + 1).split("[\\s]*,[\\s]*")) {
+						if (!replica.trim().isEmpty()) {
+							list.add(replica.trim());
+						}
+					}
+					replicas.put(part.substring(0, index).trim(), list);
+				}
+			}
+		}
+		return replicas;
+	}
+}
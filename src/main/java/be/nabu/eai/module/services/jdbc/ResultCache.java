@@ -0,0 +1,215 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import be.nabu.libs.services.api.Transactionable;
+
+/**
+ * Caches select results based on the sql and the bound parameters.
+ * The size is measured as a weight (roughly the amount of field values that are cached), the least recently used entries are evicted first.
+ * Each entry keeps track of the tables it was read from so writes to those tables can invalidate it.
+ * Tables are tracked by their name without schema, so a write to a table invalidates the reads on a table with the same name in any schema.
+ * Note that only the writes done through the generated crud services (nabu.services.jdbc.Services) invalidate the cache.
+ * Writes done through jdbc service artifacts, stored procedures, triggers or other applications are not seen, entries then only disappear when they are evicted.
+ * The cached values are never handed out directly, callers are expected to copy them on the way in and out.
+ * Each table has a generation that is increased whenever it is invalidated, a read takes the generation before it runs and only caches its result if nothing was invalidated in the meantime.
+ */
+public class ResultCache {
+	
+	public static final Long MAX_WEIGHT = Long.parseLong(System.getProperty("be.nabu.jdbc.result.cache.weight", "1000000"));
+	
+	private static ResultCache instance = new ResultCache(MAX_WEIGHT);
+	
+	// we only pick up the tables we generate (~table) or the ones explicitly mentioned in a from/join
+	private static Pattern TABLES = Pattern.compile("(?i)(?:~|\\b(?:from|join|into|update)\\s+)([\\w.]+)");
+	
+	private long maxWeight, weight;
+	
+	private LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+	private Map<String, Set<String>> tables = new HashMap<String, Set<String>>();
+	private Map<String, Long> generations = new HashMap<String, Long>();
+	
+	public static ResultCache getInstance() {
+		return instance;
+	}
+	
+	public ResultCache(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+	
+	public static Set<String> getTables(String sql) {
+		Set<String> tables = new HashSet<String>();
+		Matcher matcher = TABLES.matcher(sql);
+		while (matcher.find()) {
+			tables.add(normalize(matcher.group(1)));
+		}
+		return tables;
+	}
+	
+	// we drop the schema (if any) because writes invalidate by table name only
+	private static String normalize(String table) {
+		table = table.replaceAll("^~", "").toLowerCase();
+		int index = table.lastIndexOf('.');
+		return index >= 0 ? table.substring(index + 1) : table;
+	}
+	
+	public synchronized Object get(String key) {
+		CachedResult cached = results.get(key);
+		if (cached != null && cached.expires != null && cached.expires < System.currentTimeMillis()) {
+			remove(key);
+			cached = null;
+		}
+		return cached == null ? null : cached.result;
+	}
+	
+	/**
+	 * The combined generation of the given tables, it changes whenever one of them is invalidated
+	 */
+	public synchronized long getGeneration(Collection<String> tables) {
+		long generation = 0;
+		for (String table : tables) {
+			Long single = generations.get(normalize(table));
+			if (single != null) {
+				generation += single;
+			}
+		}
+		return generation;
+	}
+	
+	public void put(String key, Collection<String> tables, Object result, long weight, long generation) {
+		put(key, tables, result, weight, null, generation);
+	}
+	
+	/**
+	 * The time to live (in ms) is optional, without it the entry only disappears when it is evicted or invalidated
+	 * The generation must be taken before the result was read, if any of the tables was invalidated since, the result is not cached
+	 */
+	public synchronized void put(String key, Collection<String> tables, Object result, long weight, Long timeToLive, long generation) {
+		if (weight > maxWeight || getGeneration(tables) != generation) {
+			return;
+		}
+		remove(key);
+		CachedResult cached = new CachedResult();
+		cached.result = result;
+		cached.weight = weight;
+		cached.expires = timeToLive == null ? null : System.currentTimeMillis() + timeToLive;
+		cached.tables = new ArrayList<String>();
+		for (String table : tables) {
+			String normalized = normalize(table);
+			cached.tables.add(normalized);
+			if (!this.tables.containsKey(normalized)) {
+				this.tables.put(normalized, new HashSet<String>());
+			}
+			this.tables.get(normalized).add(key);
+		}
+		results.put(key, cached);
+		this.weight += weight;
+		// evict the least recently used (the map is in access order) until we are back within bounds
+		Iterator<Map.Entry<String, CachedResult>> iterator = results.entrySet().iterator();
+		while (this.weight > maxWeight && iterator.hasNext()) {
+			Map.Entry<String, CachedResult> eldest = iterator.next();
+			iterator.remove();
+			unlink(eldest.getKey(), eldest.getValue());
+		}
+	}
+	
+	public synchronized void invalidate(Collection<String> tables) {
+		for (String table : tables) {
+			String normalized = normalize(table);
+			Long generation = generations.get(normalized);
+			generations.put(normalized, generation == null ? 1 : generation + 1);
+			Set<String> keys = this.tables.remove(normalized);
+			if (keys != null) {
+				for (String key : keys) {
+					remove(key);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Invalidates the given tables again once the transaction ends
+	 */
+	public Transactionable newInvalidator(final Collection<String> tables) {
+		final String id = UUID.randomUUID().toString();
+		return new Transactionable() {
+			@Override
+			public String getId() {
+				return id;
+			}
+			@Override
+			public void start() {
+				// do nothing
+			}
+			@Override
+			public void commit() {
+				invalidate(tables);
+			}
+			@Override
+			public void rollback() {
+				invalidate(tables);
+			}
+		};
+	}
+	
+	public synchronized void clear() {
+		results.clear();
+		tables.clear();
+		weight = 0;
+	}
+	
+	private void remove(String key) {
+		CachedResult removed = results.remove(key);
+		if (removed != null) {
+			unlink(key, removed);
+		}
+	}
+	
+	private void unlink(String key, CachedResult removed) {
+		weight -= removed.weight;
+		for (String table : removed.tables) {
+			Set<String> keys = tables.get(table);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					tables.remove(table);
+				}
+			}
+		}
+	}
+	
+	private static class CachedResult {
+		private Object result;
+		private long weight;
+		private Long expires;
+		private List<String> tables;
+	}
+}
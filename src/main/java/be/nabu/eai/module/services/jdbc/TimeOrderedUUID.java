@@ -0,0 +1,50 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates version 7 uuids: a millisecond timestamp followed by random bits, so consecutive keys end up next to each other in an index.
+ * The 12 bits after the timestamp are used as a counter within the same millisecond which makes the uuids monotonic within this node.
+ * If the counter overflows, we borrow from the next millisecond rather than going back in time.
+ */
+public class TimeOrderedUUID {
+
+	// the timestamp (48 bits) followed by the counter (12 bits)
+	private static AtomicLong state = new AtomicLong();
+	
+	public static UUID next() {
+		long next;
+		while (true) {
+			long previous = state.get();
+			long now = System.currentTimeMillis() << 12;
+			next = now > previous ? now : previous + 1;
+			if (state.compareAndSet(previous, next)) {
+				break;
+			}
+		}
+		long timestamp = next >>> 12;
+		long counter = next & 0xfff;
+		long mostSignificant = (timestamp << 16) | 0x7000 | counter;
+		long leastSignificant = (ThreadLocalRandom.current().nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+		return new UUID(mostSignificant, leastSignificant);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.jdbc.JDBCServiceInstance.ConnectionTransactionable;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Buffers the writes within a transaction so many small consecutive writes to the same table end up in a single batch.
+ * It takes the place of the connection in the transaction so we are sure the buffer is flushed right before the connection is committed.
+ * Writes are only combined with the last pending write, anything else is appended so the order of the statements stays intact.
+ * Everything that is pending is flushed when:
+ * - the tables with pending writes are read from
+ * - the connection itself is requested (e.g. by a jdbc service or a stored procedure), we don't know which tables it will use
+ * - the buffer is full
+ */
+public class WriteBuffer extends ConnectionTransactionable {
+
+	public static final Integer MAX_SIZE = Integer.parseInt(System.getProperty("be.nabu.jdbc.coalesce.size", "1000"));
+	
+	public interface Flusher {
+		public void flush(List<ComplexContent> contents) throws ServiceException;
+	}
+	
+	private static class Pending {
+		private String table, statement;
+		private Flusher flusher;
+		private List<ComplexContent> contents = new ArrayList<ComplexContent>();
+	}
+	
+	private List<Pending> pending = new ArrayList<Pending>();
+	private int size;
+	// once a flush fails we can not know which writes made it, the transaction can only be rolled back
+	private ServiceException failure;
+	
+	public WriteBuffer(String id, Connection connection) {
+		super(id, connection);
+	}
+	
+	public synchronized void add(String table, String statement, List<ComplexContent> contents, Flusher flusher) throws ServiceException {
+		checkFailure();
+		table = table.toLowerCase();
+		Pending current = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+		if (current == null || !current.table.equals(table) || !current.statement.equals(statement)) {
+			current = new Pending();
+			current.table = table;
+			current.statement = statement;
+			current.flusher = flusher;
+			pending.add(current);
+		}
+		current.contents.addAll(contents);
+		size += contents.size();
+		if (size >= MAX_SIZE) {
+			flush();
+		}
+	}
+	
+	// flushes everything if any of the tables has pending writes, if no tables are given we always flush
+	public synchronized void flush(Collection<String> tables) throws ServiceException {
+		if (tables == null) {
+			flush();
+			return;
+		}
+		for (Pending single : pending) {
+			for (String table : tables) {
+				if (single.table.equals(table.toLowerCase())) {
+					flush();
+					return;
+				}
+			}
+		}
+	}
+	
+	public synchronized void flush() throws ServiceException {
+		checkFailure();
+		// the flushed writes request the connection which flushes again, so we swap out the pending writes first
+		List<Pending> pending = this.pending;
+		this.pending = new ArrayList<Pending>();
+		size = 0;
+		for (Pending single : pending) {
+			try {
+				single.flusher.flush(single.contents);
+			}
+			catch (ServiceException e) {
+				failure = e;
+				throw e;
+			}
+			catch (RuntimeException e) {
+				failure = new ServiceException(e);
+				throw e;
+			}
+		}
+	}
+	
+	private void checkFailure() throws ServiceException {
+		if (failure != null) {
+			throw new ServiceException("JDBC-6", "The buffered writes could not be flushed, the transaction must be rolled back", failure);
+		}
+	}
+	
+	public synchronized boolean isEmpty() {
+		return pending.isEmpty();
+	}
+	
+	// the flushed writes themselves also request the connection, at that point there is nothing pending anymore
+	@Override
+	public Connection getConnection() {
+		try {
+			flush();
+		}
+		catch (ServiceException e) {
+			throw new IllegalStateException("Could not flush the buffered writes", e);
+		}
+		return super.getConnection();
+	}
+	
+	@Override
+	public void commit() {
+		try {
+			flush();
+		}
+		catch (ServiceException e) {
+			super.rollback();
+			throw new IllegalStateException("Could not flush the buffered writes", e);
+		}
+		super.commit();
+	}
+	
+	@Override
+	public void rollback() {
+		synchronized(this) {
+			pending.clear();
+			size = 0;
+			failure = null;
+		}
+		super.rollback();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.jdbc.stored;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Transactionable;
+
+/**
+ * Keeps the callable statements that were prepared on a transactional connection so repeated calls within the same transaction can reuse them.
+ * It is registered in the transaction next to the connection and closes all the statements when the transaction ends.
+ */
+class CallableStatementCache implements Transactionable {
+
+	private String id;
+	private Connection connection;
+	private Map<String, CallableStatement> statements = new HashMap<String, CallableStatement>();
+	
+	private CallableStatementCache(String id, Connection connection) {
+		this.id = id;
+		this.connection = connection;
+	}
+	
+	/**
+	 * Get the cache for the connection in the given transaction, it is created if necessary
+	 */
+	static CallableStatementCache get(ExecutionContext executionContext, String transactionId, String connectionId, Connection connection) {
+		String id = connectionId + ":callable";
+		Transactionable transactionable = executionContext.getTransactionContext().get(transactionId, id);
+		if (transactionable instanceof CallableStatementCache && ((CallableStatementCache) transactionable).connection == connection) {
+			return (CallableStatementCache) transactionable;
+		}
+		// if something else is registered (which should not happen), we don't cache
+		else if (transactionable != null) {
+			return null;
+		}
+		CallableStatementCache cache = new CallableStatementCache(id, connection);
+		executionContext.getTransactionContext().add(transactionId, cache);
+		return cache;
+	}
+	
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		synchronized(statements) {
+			CallableStatement statement = statements.get(sql);
+			if (statement == null || statement.isClosed()) {
+				statement = connection.prepareCall(sql);
+				statements.put(sql, statement);
+			}
+			else {
+				statement.clearParameters();
+			}
+			return statement;
+		}
+	}
+	
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public void start() {
+		// do nothing
+	}
+
+	@Override
+	public void commit() {
+		close();
+	}
+
+	@Override
+	public void rollback() {
+		close();
+	}
+	
+	private void close() {
+		List<CallableStatement> statements;
+		synchronized(this.statements) {
+			statements = new ArrayList<CallableStatement>(this.statements.values());
+			this.statements.clear();
+		}
+		for (CallableStatement statement : statements) {
+			try {
+				statement.close();
+			}
+			catch (SQLException e) {
+				// do nothing
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.jdbc.stored;
+
+import nabu.services.jdbc.types.StoredProcedureInterface.ParameterType;
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.SimpleType;
+
+/**
+ * The precompiled binding of a single stored procedure parameter to its position in the callable statement.
+ * Everything that can be derived from the configuration is resolved once when the interface is built so a call does not do any name resolution.
+ */
+class ParameterBinding {
+	
+	private final int index, sqlType;
+	private final ParameterType parameterType;
+	private final String name;
+	private final Element<?> input, output;
+	private final Class<?> outputClass;
+	private final Converter converter;
+	private final boolean cursor;
+	
+	ParameterBinding(int index, int sqlType, ParameterType parameterType, String name, Element<?> input, Element<?> output, boolean cursor) {
+		this.index = index;
+		this.sqlType = sqlType;
+		this.parameterType = parameterType;
+		this.name = name;
+		this.input = input;
+		this.output = output;
+		this.outputClass = output != null && output.getType() instanceof SimpleType ? ((SimpleType<?>) output.getType()).getInstanceClass() : null;
+		this.converter = ConverterFactory.getInstance().getConverter();
+		this.cursor = cursor;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+	public int getSqlType() {
+		return sqlType;
+	}
+	public ParameterType getParameterType() {
+		return parameterType;
+	}
+	public String getName() {
+		return name;
+	}
+	public Element<?> getInput() {
+		return input;
+	}
+	public Element<?> getOutput() {
+		return output;
+	}
+	
+	// the output of a cursor parameter is a result set
+	public boolean isCursor() {
+		return cursor;
+	}
+	
+	public boolean isIn() {
+		return parameterType == ParameterType.IN || parameterType == ParameterType.IN_OUT;
+	}
+	
+	public boolean isOut() {
+		return parameterType == ParameterType.OUT || parameterType == ParameterType.IN_OUT || parameterType == ParameterType.RETURN;
+	}
+	
+	// converts a value coming from the database to the type of the output element
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Object convert(Object value) {
+		if (value == null || outputClass == null || outputClass.isInstance(value)) {
+			return value;
+		}
+		if (!converter.canConvert(value.getClass(), outputClass)) {
+			if (String.class.equals(outputClass)) {
+				return value.toString();
+			}
+			else {
+				throw new IllegalArgumentException("Can not convert " + value.getClass() + " to " + outputClass);
+			}
+		}
+		return converter.convert(value, (Class) outputClass);
+	}
+}
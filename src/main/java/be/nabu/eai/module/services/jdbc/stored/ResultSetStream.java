@@ -0,0 +1,188 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.jdbc.stored;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.resultset.ResultSetCollectionHandler;
+
+/**
+ * Lazily converts the rows of a result set returned by a stored procedure, it can only be iterated once.
+ * The statement (and the connection if we own it) are shared by all the streams of a single call and are closed when the last stream is closed.
+ */
+class ResultSetStream implements Iterable<ComplexContent>, AutoCloseable {
+
+	/**
+	 * The resources that must be held open as long as any of the streams is still being read
+	 */
+	static class Resources {
+		private Statement statement;
+		private Connection connection;
+		private int open;
+		
+		Resources(Statement statement, Connection connection) {
+			this.statement = statement;
+			this.connection = connection;
+		}
+		
+		synchronized void acquire() {
+			open++;
+		}
+		
+		synchronized void release() {
+			if (--open <= 0) {
+				close();
+			}
+		}
+		
+		synchronized boolean isOpen() {
+			return open > 0;
+		}
+		
+		private void close() {
+			try {
+				if (statement != null) {
+					statement.close();
+				}
+			}
+			catch (SQLException e) {
+				// do nothing
+			}
+			try {
+				if (connection != null) {
+					connection.close();
+				}
+			}
+			catch (SQLException e) {
+				// do nothing
+			}
+			statement = null;
+			connection = null;
+		}
+	}
+	
+	private ResultSet resultSet;
+	private ComplexType type;
+	private Resources resources;
+	private boolean closed, iterated;
+	
+	ResultSetStream(ResultSet resultSet, ComplexType type, Resources resources) {
+		this.resultSet = resultSet;
+		this.type = type;
+		this.resources = resources;
+		resources.acquire();
+	}
+	
+	@Override
+	public Iterator<ComplexContent> iterator() {
+		if (iterated) {
+			throw new IllegalStateException("The result can only be iterated once");
+		}
+		iterated = true;
+		return new Iterator<ComplexContent>() {
+			private Boolean hasNext;
+			@Override
+			public boolean hasNext() {
+				if (hasNext == null) {
+					try {
+						hasNext = !closed && resultSet.next();
+					}
+					catch (SQLException e) {
+						close();
+						throw new RuntimeException(e);
+					}
+					if (!hasNext) {
+						close();
+					}
+				}
+				return hasNext;
+			}
+			@Override
+			public ComplexContent next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				hasNext = null;
+				try {
+					return convert(resultSet, type);
+				}
+				catch (RuntimeException e) {
+					close();
+					throw e;
+				}
+				catch (Exception e) {
+					close();
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Converts the current row, this is used for both the streamed and the fully read results
+	 */
+	static ComplexContent convert(ResultSet resultSet, ComplexType type) throws SQLException, ServiceException {
+		try {
+			return ResultSetCollectionHandler.convert(resultSet, type);
+		}
+		catch (IllegalArgumentException e) {
+			throw new ServiceException("JDBC-4", "Invalid type", e);
+		}
+	}
+	
+	/**
+	 * Reads all the remaining rows and closes the result set
+	 */
+	static List<ComplexContent> readAll(ResultSet resultSet, ComplexType type) throws SQLException, ServiceException {
+		List<ComplexContent> results = new ArrayList<ComplexContent>();
+		try {
+			while (resultSet.next()) {
+				results.add(convert(resultSet, type));
+			}
+		}
+		finally {
+			resultSet.close();
+		}
+		return results;
+	}
+	
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				resultSet.close();
+			}
+			catch (SQLException e) {
+				// do nothing
+			}
+			resources.release();
+		}
+	}
+}
@@ -20,8 +20,13 @@ package be.nabu.eai.module.services.jdbc.stored;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,10 +62,25 @@ import be.nabu.libs.types.structure.Structure;
 // that means all customizations are always lost...
 public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfiguration> implements DefinedService {
 
-	private Structure input, output, combinedInput, returnValue, parameters, results;
+	public static final String BATCH = "batch";
+	public static final String RETURN = "return";
+	public static final String ERROR = "error";
+	// the fields and child entries that are always there, a named result can not take these
+	private static final List<String> RESERVED_NAMES = Arrays.asList(JDBCService.CONNECTION, JDBCService.TRANSACTION, JDBCService.PARAMETERS, JDBCService.RESULTS, RETURN, BATCH, ERROR);
+	// the sql type oracle uses for cursors
+	public static final int ORACLE_CURSOR = -10;
+	
+	private Structure input, output, combinedInput, returnValue, parameters, results, batchResult;
 	private SimpleTypeWrapper wrapper = SimpleTypeWrapperFactory.getInstance().getWrapper();
 	private String sql;
 	private Map<SQLDialect, Map<String, String>> preparedSql = new HashMap<SQLDialect, Map<String, String>>();
+	private volatile List<ParameterBinding> bindings;
+	// the named result types we know of (possibly loaded from disk), they are kept across rebuilds so customizations are not lost
+	private Map<String, Structure> namedResultTypes = new HashMap<String, Structure>();
+	// precompiled in build interface, like the bindings
+	private volatile Map<String, Structure> namedResults;
+	private volatile List<String> resultSetNames;
+	private volatile boolean streaming;
 	
 	public StoredProcedureArtifact(String id, ResourceContainer<?> directory, Repository repository) {
 		super(id, directory, repository, "stored-procedure.xml", StoredProcedureConfiguration.class);
@@ -120,6 +140,10 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 				combinedInput = new Structure();
 				combinedInput.setName("input");
 			}
+			if (batchResult == null) {
+				batchResult = new Structure();
+				batchResult.setName("batchResult");
+			}
 			
 			Structure results = getResults();
 			Structure parameters = getParameters();
@@ -132,6 +156,9 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 			for (Element<?> child : TypeUtils.getAllChildren(output)) {
 				output.remove(child);
 			}
+			for (Element<?> child : TypeUtils.getAllChildren(batchResult)) {
+				batchResult.remove(child);
+			}
 			
 			Map<String, Element<?>> parameterElements = new HashMap<String, Element<?>>();
 			Map<String, Element<?>> resultElements = new HashMap<String, Element<?>>();
@@ -162,6 +189,11 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 							combinedInput.add(TypeBaseUtils.clone(element, combinedInput));
 						break;
 						case OUT:
+							// cursors are not returned as a value but as a named result
+							if (isCursor(parameter)) {
+								combinedInput.add(create(parameter, combinedInput));
+								break;
+							}
 							if (!returnElements.containsKey(cleanup(parameter.getName()))) {
 								returnElements.put(cleanup(parameter.getName()), create(parameter, parameters));
 							}
@@ -210,15 +242,79 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 			input.add(new SimpleElementImpl<String>(JDBCService.TRANSACTION, wrapper.wrap(String.class), input, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
 			if (parameters.iterator().hasNext()) {
 				input.add(new ComplexElementImpl(JDBCService.PARAMETERS, parameters, input, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+				// you can also pass in a list of parameters to execute the procedure for each of them in a single call
+				input.add(new ComplexElementImpl(BATCH, parameters, input, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0), new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
 			}
 			if (results.iterator().hasNext()) {
 				output.add(new ComplexElementImpl(JDBCService.RESULTS, results, output, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0), new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
+				batchResult.add(new ComplexElementImpl(JDBCService.RESULTS, results, batchResult, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0), new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
 			}
 			if (returnValue.iterator().hasNext()) {
-				output.add(new ComplexElementImpl("return", returnValue, output, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+				output.add(new ComplexElementImpl(RETURN, returnValue, output, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+				batchResult.add(new ComplexElementImpl(RETURN, returnValue, batchResult, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+			}
+			namedResults = compileNamedResults();
+			resultSetNames = compileResultSetNames();
+			streaming = getConfig().getStreamResults() != null && getConfig().getStreamResults();
+			for (Map.Entry<String, Structure> namedResult : namedResults.entrySet()) {
+				output.add(new ComplexElementImpl(namedResult.getKey(), namedResult.getValue(), output, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0), new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
+			}
+			if (parameters.iterator().hasNext()) {
+				batchResult.add(new SimpleElementImpl<String>(ERROR, wrapper.wrap(String.class), batchResult, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+				output.add(new ComplexElementImpl(BATCH, batchResult, output, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0), new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
 			}
 			sql = null;
+			bindings = compileBindings();
+		}
+	}
+	
+	/**
+	 * The bindings for all the parameters that are part of the call, in the order they appear in the statement
+	 */
+	List<ParameterBinding> getBindings() {
+		if (input == null || output == null) {
+			buildInterface();
+		}
+		List<ParameterBinding> bindings = this.bindings;
+		if (bindings == null) {
+			synchronized(this) {
+				if (this.bindings == null) {
+					this.bindings = compileBindings();
+				}
+				bindings = this.bindings;
+			}
+		}
+		return bindings;
+	}
+	
+	// this must follow the same order as the generated sql
+	private List<ParameterBinding> compileBindings() {
+		List<ParameterBinding> bindings = new ArrayList<ParameterBinding>();
+		List<StoredProcedureParameter> storedProcedureParameters = getConfig().getParameters();
+		if (storedProcedureParameters != null) {
+			int index = 1;
+			StoredProcedureParameter returnParameter = getReturnParameter();
+			if (returnParameter != null) {
+				String name = cleanup(returnParameter.getName());
+				bindings.add(new ParameterBinding(index++, returnParameter.getSqlType(), ParameterType.RETURN, name, null, getReturnValue().get(name), false));
+			}
+			for (StoredProcedureParameter parameter : storedProcedureParameters) {
+				switch (parameter.getParameterType()) {
+					case IN:
+					case OUT:
+					case IN_OUT:
+						String name = cleanup(parameter.getName());
+						bindings.add(new ParameterBinding(index++, parameter.getSqlType(), parameter.getParameterType(), name, 
+							parameter.getParameterType() == ParameterType.OUT ? null : getParameters().get(name), 
+							parameter.getParameterType() == ParameterType.IN ? null : getReturnValue().get(name),
+							parameter.getParameterType() == ParameterType.OUT && isCursor(parameter)));
+					break;
+					default:
+						// not part of the call
+				}
+			}
 		}
+		return Collections.unmodifiableList(bindings);
 	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -273,6 +369,137 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 		return false;
 	}
 	
+	public static boolean isCursor(StoredProcedureParameter parameter) {
+		if (parameter.getSqlType() == Types.REF_CURSOR || parameter.getSqlType() == ORACLE_CURSOR) {
+			return true;
+		}
+		String typeName = parameter.getProperties() == null ? null : parameter.getProperties().get("typeName");
+		return typeName != null && typeName.equalsIgnoreCase("refcursor");
+	}
+	
+	/**
+	 * The names of the results next to the default one: first the additional result sets in order, then the cursor parameters
+	 */
+	List<String> getNamedResultNames() {
+		return getNamedResultNames(getConfig().getResultSets());
+	}
+	
+	/**
+	 * The names of the results next to the default one if the given additional result sets were configured
+	 */
+	List<String> getNamedResultNames(List<String> resultSets) {
+		List<String> names = new ArrayList<String>();
+		if (resultSets != null) {
+			for (String resultSet : resultSets) {
+				names.add(cleanup(resultSet));
+			}
+		}
+		if (getConfig().getParameters() != null) {
+			for (StoredProcedureParameter parameter : getConfig().getParameters()) {
+				if (parameter.getParameterType() == ParameterType.OUT && isCursor(parameter)) {
+					names.add(cleanup(parameter.getName()));
+				}
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * Named results end up as output fields and child entries so they can not reuse the fixed names or one another
+	 */
+	static List<String> validateNamedResultNames(List<String> names) {
+		List<String> messages = new ArrayList<String>();
+		Set<String> found = new HashSet<String>();
+		for (String name : names) {
+			if (name == null || name.isEmpty()) {
+				messages.add("A named result must have a name");
+			}
+			else if (RESERVED_NAMES.contains(name)) {
+				messages.add("The named result '" + name + "' uses a reserved name");
+			}
+			else if (!found.add(name)) {
+				messages.add("The named result '" + name + "' is defined more than once");
+			}
+		}
+		return messages;
+	}
+	
+	/**
+	 * The types of the named results by name, in the order of {@link #getNamedResultNames()}
+	 */
+	Map<String, Structure> getNamedResults() {
+		if (input == null || output == null) {
+			buildInterface();
+		}
+		Map<String, Structure> namedResults = this.namedResults;
+		if (namedResults == null) {
+			synchronized(this) {
+				if (this.namedResults == null) {
+					this.namedResults = compileNamedResults();
+				}
+				namedResults = this.namedResults;
+			}
+		}
+		return namedResults;
+	}
+	
+	/**
+	 * The names of the additional result sets in the order they are returned
+	 */
+	List<String> getResultSetNames() {
+		if (input == null || output == null) {
+			buildInterface();
+		}
+		return resultSetNames;
+	}
+	
+	private Map<String, Structure> compileNamedResults() {
+		synchronized(namedResultTypes) {
+			Map<String, Structure> namedResults = new LinkedHashMap<String, Structure>();
+			for (String name : getNamedResultNames()) {
+				// invalid names are rejected on save, we never let them overwrite a fixed field
+				if (name == null || name.isEmpty() || RESERVED_NAMES.contains(name) || namedResults.containsKey(name)) {
+					continue;
+				}
+				Structure structure = namedResultTypes.get(name);
+				if (structure == null) {
+					structure = new DefinedStructure();
+					structure.setName(name);
+					namedResultTypes.put(name, structure);
+				}
+				namedResults.put(name, structure);
+			}
+			return Collections.unmodifiableMap(namedResults);
+		}
+	}
+	
+	private List<String> compileResultSetNames() {
+		List<String> names = new ArrayList<String>();
+		if (getConfig().getResultSets() != null) {
+			for (String resultSet : getConfig().getResultSets()) {
+				names.add(cleanup(resultSet));
+			}
+		}
+		return Collections.unmodifiableList(names);
+	}
+	
+	void setNamedResult(String name, Structure structure) {
+		synchronized(namedResultTypes) {
+			namedResultTypes.put(name, structure);
+		}
+		this.namedResults = null;
+	}
+	
+	/**
+	 * Streaming is opt-in: the results are lazily fetched and the connection is held until they are drained or closed
+	 */
+	boolean isStreaming() {
+		if (input == null || output == null) {
+			buildInterface();
+		}
+		return streaming;
+	}
+	
 	boolean hasResult() {
 		return hasParameterType(ParameterType.RESULT);
 	}
@@ -339,6 +566,13 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 		}
 		return results;
 	}
+	// the result for a single item in a batch call
+	Structure getBatchResult() {
+		if (batchResult == null) {
+			buildInterface();
+		}
+		return batchResult;
+	}
 	Structure getReturnValue() {
 		if (returnValue == null) {
 			returnValue = new DefinedStructure();
@@ -368,10 +602,12 @@ public class StoredProcedureArtifact extends JAXBArtifact<StoredProcedureConfigu
 
 	void setReturnValue(Structure returnValue) {
 		this.returnValue = returnValue;
+		this.bindings = null;
 	}
 
 	void setParameters(Structure parameters) {
 		this.parameters = parameters;
+		this.bindings = null;
 	}
 
 	void setResults(Structure results) {
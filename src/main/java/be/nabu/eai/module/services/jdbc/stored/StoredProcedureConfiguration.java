@@ -31,6 +31,10 @@ public class StoredProcedureConfiguration {
 	private DataSourceProviderArtifact connection;
 	private String catalogue, schema, name, uniqueName;
 	private List<StoredProcedureParameter> parameters;
+	// the names of the result sets that are returned after the first one
+	private List<String> resultSets;
+	// whether the results should be streamed rather than fully loaded into memory
+	private Boolean streamResults;
 	
 	@XmlJavaTypeAdapter(value = ArtifactXMLAdapter.class)
 	public DataSourceProviderArtifact getConnection() {
@@ -70,4 +74,16 @@ public class StoredProcedureConfiguration {
 	public void setParameters(List<StoredProcedureParameter> parameters) {
 		this.parameters = parameters;
 	}
+	public List<String> getResultSets() {
+		return resultSets;
+	}
+	public void setResultSets(List<String> resultSets) {
+		this.resultSets = resultSets;
+	}
+	public Boolean getStreamResults() {
+		return streamResults;
+	}
+	public void setStreamResults(Boolean streamResults) {
+		this.streamResults = streamResults;
+	}
 }
@@ -30,6 +30,7 @@ import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
@@ -72,6 +73,8 @@ import be.nabu.libs.types.properties.MaxOccursProperty;
 import be.nabu.libs.types.properties.MinOccursProperty;
 import be.nabu.libs.types.properties.PrimaryKeyProperty;
 import be.nabu.libs.types.properties.TimezoneProperty;
+import be.nabu.libs.validator.api.ValidationMessage;
+import be.nabu.libs.validator.api.ValidationMessage.Severity;
 
 public class StoredProcedureGUIManager extends BasePortableGUIManager<StoredProcedureArtifact, BaseArtifactGUIInstance<StoredProcedureArtifact>> {
 
@@ -117,6 +120,37 @@ public class StoredProcedureGUIManager extends BasePortableGUIManager<StoredProc
 		split.getItems().addAll(inputScroll, outputScroll);
 	}
 	
+	// the named results are children of the entry, we remove them based on the current result sets before we change them
+	private void updateResultSets(StoredProcedureArtifact artifact, String value, SplitPane split) {
+		List<String> resultSets = new ArrayList<String>();
+		if (value != null) {
+			for (String part : value.split("[\\s]*,[\\s]*")) {
+				if (!part.trim().isEmpty()) {
+					resultSets.add(part.trim());
+				}
+			}
+		}
+		List<String> current = artifact.getConfig().getResultSets();
+		if (resultSets.equals(current == null ? new ArrayList<String>() : current)) {
+			return;
+		}
+		List<String> problems = StoredProcedureArtifact.validateNamedResultNames(artifact.getNamedResultNames(resultSets));
+		if (!problems.isEmpty()) {
+			for (String problem : problems) {
+				MainController.getInstance().notify(new ValidationMessage(Severity.ERROR, problem));
+			}
+			return;
+		}
+		ModifiableEntry entry = (ModifiableEntry) artifact.getRepository().getEntry(artifact.getId());
+		StoredProcedureManager manager = (StoredProcedureManager) getArtifactManager();
+		manager.removeChildren(entry, artifact);
+		artifact.getConfig().setResultSets(resultSets.isEmpty() ? null : resultSets);
+		artifact.buildInterface();
+		manager.addChildren(entry, artifact);
+		drawInterface(artifact, split);
+		MainController.getInstance().setChanged();
+	}
+	
 	private void updateLabel(StoredProcedureArtifact artifact, Label label) {
 		label.setText((artifact.getConfig().getSchema() == null ? "" : artifact.getConfig().getSchema() + ".") + (artifact.getConfig().getName() == null ? "" : artifact.getConfig().getName())
 			+ (artifact.getConfig().getUniqueName() == null ? "" : " (" + artifact.getConfig().getUniqueName() + ")"));
@@ -284,7 +318,37 @@ public class StoredProcedureGUIManager extends BasePortableGUIManager<StoredProc
 				}
 			}
 		});
-		buttons.getChildren().addAll(label, browse);
+		
+		// the procedure can return additional result sets after the default one, each gets its own result
+		TextField resultSets = new TextField(artifact.getConfig().getResultSets() == null ? "" : String.join(", ", artifact.getConfig().getResultSets()));
+		resultSets.setPromptText("Additional result sets (comma separated)");
+		resultSets.addEventHandler(ActionEvent.ANY, new EventHandler<ActionEvent>() {
+			@Override
+			public void handle(ActionEvent arg0) {
+				updateResultSets(artifact, resultSets.getText(), split);
+			}
+		});
+		resultSets.focusedProperty().addListener(new ChangeListener<Boolean>() {
+			@Override
+			public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean arg2) {
+				if (arg2 != null && !arg2) {
+					updateResultSets(artifact, resultSets.getText(), split);
+				}
+			}
+		});
+		
+		CheckBox streamResults = new CheckBox("Stream Results");
+		streamResults.setSelected(artifact.getConfig().getStreamResults() != null && artifact.getConfig().getStreamResults());
+		streamResults.selectedProperty().addListener(new ChangeListener<Boolean>() {
+			@Override
+			public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean arg2) {
+				artifact.getConfig().setStreamResults(arg2 != null && arg2 ? true : null);
+				artifact.buildInterface();
+				MainController.getInstance().setChanged();
+			}
+		});
+		
+		buttons.getChildren().addAll(label, browse, resultSets, streamResults);
 		box.getChildren().addAll(buttons, split);
 		
 		pane.getChildren().add(box);
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import be.nabu.eai.module.types.structure.StructureManager;
 import be.nabu.eai.repository.EAINode;
@@ -32,11 +33,15 @@ import be.nabu.eai.repository.api.ResourceEntry;
 import be.nabu.eai.repository.managers.base.JAXBArtifactManager;
 import be.nabu.eai.repository.resources.MemoryEntry;
 import be.nabu.libs.resources.api.ManageableContainer;
+import be.nabu.libs.resources.api.Resource;
 import be.nabu.libs.resources.api.ResourceContainer;
 import be.nabu.libs.services.jdbc.JDBCService;
 import be.nabu.libs.types.TypeUtils;
 import be.nabu.libs.types.structure.DefinedStructure;
+import be.nabu.libs.types.structure.Structure;
 import be.nabu.libs.validator.api.Validation;
+import be.nabu.libs.validator.api.ValidationMessage;
+import be.nabu.libs.validator.api.ValidationMessage.Severity;
 
 public class StoredProcedureManager extends JAXBArtifactManager<StoredProcedureConfiguration, StoredProcedureArtifact> implements ArtifactRepositoryManager<StoredProcedureArtifact> {
 
@@ -57,11 +62,24 @@ public class StoredProcedureManager extends JAXBArtifactManager<StoredProcedureC
 		if (artifact.hasReturnValue()) {
 			artifact.setReturnValue((DefinedStructure) StructureManager.parse(entry, "return.xml"));
 		}
+		for (String name : artifact.getNamedResultNames()) {
+			if (entry.getContainer().getChild("results-" + name + ".xml") != null) {
+				artifact.setNamedResult(name, (DefinedStructure) StructureManager.parse(entry, "results-" + name + ".xml"));
+			}
+		}
 		return artifact;
 	}
 
 	@Override
 	public List<Validation<?>> save(ResourceEntry entry, StoredProcedureArtifact artifact) throws IOException {
+		List<String> problems = StoredProcedureArtifact.validateNamedResultNames(artifact.getNamedResultNames());
+		if (!problems.isEmpty()) {
+			List<Validation<?>> messages = new ArrayList<Validation<?>>();
+			for (String problem : problems) {
+				messages.add(new ValidationMessage(Severity.ERROR, problem));
+			}
+			return messages;
+		}
 		if (artifact.hasParameters()) {
 			StructureManager.format(entry, artifact.getParameters(), "parameters.xml");
 		}
@@ -82,6 +100,21 @@ public class StoredProcedureManager extends JAXBArtifactManager<StoredProcedureC
 		else {
 			((ManageableContainer<?>) entry.getContainer()).delete("return.xml");
 		}
+		
+		Map<String, Structure> namedResults = artifact.getNamedResults();
+		for (Map.Entry<String, Structure> namedResult : namedResults.entrySet()) {
+			StructureManager.format(entry, namedResult.getValue(), "results-" + namedResult.getKey() + ".xml");
+		}
+		// remove the named results that are no longer there
+		List<String> obsolete = new ArrayList<String>();
+		for (Resource child : entry.getContainer()) {
+			if (child.getName().startsWith("results-") && child.getName().endsWith(".xml") && !namedResults.containsKey(child.getName().substring("results-".length(), child.getName().length() - ".xml".length()))) {
+				obsolete.add(child.getName());
+			}
+		}
+		for (String name : obsolete) {
+			((ManageableContainer<?>) entry.getContainer()).delete(name);
+		}
 		return super.save(entry, artifact);
 	}
 
@@ -131,6 +164,18 @@ public class StoredProcedureManager extends JAXBArtifactManager<StoredProcedureC
 				parent.addChildren(results);
 				entries.add(results);
 			}
+			for (Map.Entry<String, Structure> namedResult : artifact.getNamedResults().entrySet()) {
+				isLeaf = false;
+				EAINode node = new EAINode();
+				node.setArtifactClass(DefinedStructure.class);
+				node.setArtifact((DefinedStructure) namedResult.getValue());
+				node.setLeaf(true);
+				Entry results = new MemoryEntry(artifact.getId(), parent.getRepository(), parent, node, parent.getId() + "." + namedResult.getKey(), namedResult.getKey());
+				((DefinedStructure) namedResult.getValue()).setId(results.getId());
+				node.setEntry(results);
+				parent.addChildren(results);
+				entries.add(results);
+			}
 			((EAINode) parent.getNode()).setLeaf(isLeaf);
 		}
 		return entries;
@@ -154,6 +199,15 @@ public class StoredProcedureManager extends JAXBArtifactManager<StoredProcedureC
 			((ModifiableEntry) parent).removeChildren(results.getName());
 			entries.add(results);
 		}
+		if (artifact != null) {
+			for (String name : artifact.getNamedResultNames()) {
+				results = parent.getChild(name);
+				if (results != null) {
+					((ModifiableEntry) parent).removeChildren(results.getName());
+					entries.add(results);
+				}
+			}
+		}
 		((EAINode) parent.getNode()).setLeaf(true);
 		return entries;
 	}
@@ -17,15 +17,19 @@
 
 package be.nabu.eai.module.services.jdbc.stored;
 
+import java.sql.BatchUpdateException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
-import nabu.services.jdbc.types.StoredProcedureInterface.ParameterType;
-import nabu.services.jdbc.types.StoredProcedureInterface.StoredProcedureParameter;
-import be.nabu.libs.converter.ConverterFactory;
-import be.nabu.libs.converter.api.Converter;
+import be.nabu.eai.module.services.jdbc.LazyList;
 import be.nabu.libs.metrics.api.MetricInstance;
 import be.nabu.libs.services.api.ExecutionContext;
 import be.nabu.libs.services.api.Service;
@@ -37,11 +41,12 @@ import be.nabu.libs.services.jdbc.JDBCService;
 import be.nabu.libs.services.jdbc.JDBCServiceInstance.ConnectionTransactionable;
 import be.nabu.libs.services.jdbc.api.DataSourceWithDialectProviderArtifact;
 import be.nabu.libs.services.jdbc.api.SQLDialect;
+import be.nabu.libs.types.CollectionHandlerFactory;
+import be.nabu.libs.types.ComplexContentWrapperFactory;
+import be.nabu.libs.types.api.CollectionHandlerProvider;
 import be.nabu.libs.types.api.ComplexContent;
 import be.nabu.libs.types.api.ComplexType;
-import be.nabu.libs.types.api.Element;
-import be.nabu.libs.types.api.SimpleType;
-import be.nabu.libs.types.resultset.ResultSetCollectionHandler;
+import be.nabu.libs.types.structure.Structure;
 import be.nabu.libs.types.structure.StructureInstance;
 
 public class StoredProcedureServiceInstance implements ServiceInstance {
@@ -75,7 +80,13 @@ public class StoredProcedureServiceInstance implements ServiceInstance {
 			String transactionId = content == null ? null : (String) content.get(JDBCService.TRANSACTION);
 			
 			// if it's not autocommitted, we need to check if there is already a transaction open on this resource for the given transaction id
+			Object batch = content == null || !artifact.hasParameters() ? null : content.get(StoredProcedureArtifact.BATCH);
+			// streamed results hold on to the statement (and the connection if we own it) until they are drained or closed
+			boolean streaming = batch == null && artifact.isStreaming();
+			ResultSetStream.Resources resources = null;
+			
 			Connection connection = null;
+			CallableStatementCache statements = null;
 			try {
 				if (!dataSourceProvider.isAutoCommit()) {
 					// if there is no open transaction, create one
@@ -87,6 +98,11 @@ public class StoredProcedureServiceInstance implements ServiceInstance {
 					else {
 						connection = ((ConnectionTransactionable) transactionable).getConnection();
 					}
+					// within a transaction the same procedure is often called repeatedly, we reuse the statement until the transaction ends
+					// a streamed statement can not be reused while its results are still being read
+					if (!streaming) {
+						statements = CallableStatementCache.get(executionContext, transactionId, connectionId, connection);
+					}
 				}
 				// it's autocommitted, just start a new connection
 				else {
@@ -102,86 +118,66 @@ public class StoredProcedureServiceInstance implements ServiceInstance {
 				
 				sql = artifact.getPreparedSql(dataSourceProvider.getDialect(), sql);
 				
-				CallableStatement statement = connection.prepareCall(sql);
+				CallableStatement statement = statements == null ? connection.prepareCall(sql) : statements.prepareCall(sql);
 				
 				try {
-					int counter = 1;
+					ComplexContent output = artifact.getServiceInterface().getOutputDefinition().newInstance();
 					
-					ComplexContent parameters = content == null ? null : (ComplexContent) content.get(JDBCService.PARAMETERS);
-		
-					// if we have a return parameter, it is in the first place
-					StoredProcedureParameter returnParameter = artifact.getReturnParameter();
-					if (returnParameter != null) {
-						statement.registerOutParameter(counter++, returnParameter.getSqlType());
-					}
+					// the bindings are precompiled, the return parameter (if any) is in the first place
+					List<ParameterBinding> bindings = artifact.getBindings();
 					
-					if (artifact.getConfig().getParameters() != null) {
-						ComplexType parametersInput = artifact.getParameters();
-						for (StoredProcedureParameter parameter : artifact.getConfig().getParameters()) {
-							if (parameter.getParameterType() == ParameterType.OUT || parameter.getParameterType() == ParameterType.IN_OUT) {
-								statement.registerOutParameter(counter++, parameter.getSqlType());
-							}
-							if (parametersInput != null && (parameter.getParameterType() == ParameterType.IN_OUT || parameter.getParameterType() == ParameterType.IN)) {
-								dialect.setObject(statement, parametersInput.get(StoredProcedureArtifact.cleanup(parameter.getName())), counter, parameters == null ? null : parameters.get(StoredProcedureArtifact.cleanup(parameter.getName())), sql);
-								// if it is only in, we haven't increased the counter yet
-								if (parameter.getParameterType() == ParameterType.IN) {
-									counter++;
+					if (batch != null) {
+						List<ComplexContent> items = toContents(batch);
+						// if we don't need anything back (no results, result sets or output parameters), we can use a jdbc batch, otherwise we reuse the statement for each call
+						if (!artifact.hasResult() && artifact.getResultSetNames().isEmpty() && !hasOutput(bindings)) {
+							output.set(StoredProcedureArtifact.BATCH, executeBatch(statement, dialect, sql, bindings, items));
+						}
+						else {
+							// in a transaction each call gets its own savepoint so a failure does not take the rest of the transaction down with it
+							// if autocommitted, each call is a transaction of its own
+							boolean isolate = !dataSourceProvider.isAutoCommit();
+							List<ComplexContent> results = new ArrayList<ComplexContent>(items.size());
+							for (ComplexContent item : items) {
+								ComplexContent result = artifact.getBatchResult().newInstance();
+								Savepoint savepoint = isolate ? connection.setSavepoint() : null;
+								try {
+									call(statement, dialect, sql, bindings, item, result);
+									if (savepoint != null) {
+										connection.releaseSavepoint(savepoint);
+									}
+								}
+								catch (SQLException e) {
+									if (savepoint != null) {
+										connection.rollback(savepoint);
+									}
+									result.set(StoredProcedureArtifact.ERROR, e.getMessage());
 								}
+								results.add(result);
 							}
+							output.set(StoredProcedureArtifact.BATCH, results);
 						}
 					}
-					
-					ComplexContent output = artifact.getServiceInterface().getOutputDefinition().newInstance();
-					
-					if (artifact.hasResult()) {
-						int index = 0;
-						ResultSet executeQuery = statement.executeQuery();
-						while (executeQuery.next()) {
-							ComplexContent result;
-							try {
-								result = ResultSetCollectionHandler.convert(executeQuery, artifact.getResults());
-							}
-							catch (IllegalArgumentException e) {
-								throw new ServiceException("JDBC-4", "Invalid type", e);
-							}
-							output.set(JDBCService.RESULTS + "[" + index++ + "]", result);
+					else if (streaming || !artifact.getNamedResults().isEmpty()) {
+						if (streaming) {
+							resources = new ResultSetStream.Resources(statement, dataSourceProvider.isAutoCommit() ? connection : null);
 						}
+						callWithNamedResults(statement, dialect, sql, bindings, content == null ? null : (ComplexContent) content.get(JDBCService.PARAMETERS), output, resources, transactionId, executionContext);
 					}
 					else {
-						statement.execute();
-					}
-					
-					boolean setReturnValue = false;
-					StructureInstance returnValue = artifact.getReturnValue().newInstance();
-					int column = 1;
-					if (returnParameter != null) {
-						String cleanup = StoredProcedureArtifact.cleanup(returnParameter.getName());
-						returnValue.set(cleanup, convert(statement.getObject(column++), returnValue.getType().get(cleanup)));
-						setReturnValue = true;
-					}
-					for (StoredProcedureParameter parameter : artifact.getConfig().getParameters()) {
-						if (parameter.getParameterType() == ParameterType.OUT || parameter.getParameterType() == ParameterType.IN_OUT) {
-							String cleanup = StoredProcedureArtifact.cleanup(parameter.getName());
-							returnValue.set(cleanup, convert(statement.getObject(column++), returnValue.getType().get(cleanup)));
-							setReturnValue = true;
-						}
-						else {
-							column++;
-						}
-					}
-					
-					if (setReturnValue) {
-						output.set("return", returnValue);
+						call(statement, dialect, sql, bindings, content == null ? null : (ComplexContent) content.get(JDBCService.PARAMETERS), output);
 					}
 					
 					return output;
 				}
 				finally {
-					statement.close();
+					// cached statements are closed when the transaction ends, streamed ones when the last result is closed
+					if (statements == null && (resources == null || !resources.isOpen())) {
+						statement.close();
+					}
 				}
 			}
 			finally {
-				if (dataSourceProvider.isAutoCommit() && connection != null) {
+				if (dataSourceProvider.isAutoCommit() && connection != null && (resources == null || !resources.isOpen())) {
 					try {
 						connection.close();
 					}
@@ -191,28 +187,233 @@ public class StoredProcedureServiceInstance implements ServiceInstance {
 				}
 			}
 		}
+		catch (ServiceException e) {
+			throw e;
+		}
 		catch (Exception e) {
 			throw new ServiceException(e);
 		}
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private static Object convert(Object value, Element<?> element) {
-		if (value == null || !(element.getType() instanceof SimpleType)) {
-			return value;
+	// executes the procedure once and sets the results and return value in the target
+	private void call(CallableStatement statement, SQLDialect dialect, String sql, List<ParameterBinding> bindings, ComplexContent parameters, ComplexContent target) throws SQLException, ServiceException {
+		boolean hasOutput = bind(statement, dialect, sql, bindings, parameters);
+		if (artifact.hasResult()) {
+			// collect the rows directly instead of setting each one through an indexed path
+			List<ComplexContent> results = ResultSetStream.readAll(statement.executeQuery(), artifact.getResults());
+			if (!results.isEmpty()) {
+				target.set(JDBCService.RESULTS, results);
+			}
+		}
+		else {
+			statement.execute();
 		}
 		
-		Converter converter = ConverterFactory.getInstance().getConverter();
-		Class instanceClass = ((SimpleType) element.getType()).getInstanceClass();
-		if (!converter.canConvert(value.getClass(), instanceClass)) {
-			if (String.class.equals(((SimpleType) element.getType()).getInstanceClass())) {
-				return value.toString();
+		if (hasOutput) {
+			StructureInstance returnValue = null;
+			for (int i = 0; i < bindings.size(); i++) {
+				ParameterBinding binding = bindings.get(i);
+				if (!binding.isOut()) {
+					continue;
+				}
+				// cursors are named results which we don't return here, but they are open on the server until we close them
+				if (binding.isCursor()) {
+					ResultSet cursor = (ResultSet) statement.getObject(binding.getIndex());
+					if (cursor != null) {
+						cursor.close();
+					}
+				}
+				else {
+					if (returnValue == null) {
+						returnValue = artifact.getReturnValue().newInstance();
+					}
+					returnValue.set(binding.getName(), binding.convert(statement.getObject(binding.getIndex())));
+				}
 			}
-			else {
-				throw new IllegalArgumentException("Can not convert " + value.getClass() + " to " + instanceClass);
+			if (returnValue != null) {
+				target.set(StoredProcedureArtifact.RETURN, returnValue);
+			}
+		}
+	}
+	
+	// executes the procedure once and sets the results for each result set and cursor in the target
+	// if we get resources, the results are streamed: they are fetched lazily and hold on to the resources until they are closed
+	private void callWithNamedResults(CallableStatement statement, SQLDialect dialect, String sql, List<ParameterBinding> bindings, ComplexContent parameters, ComplexContent target, ResultSetStream.Resources resources, String transactionId, ExecutionContext executionContext) throws SQLException, ServiceException {
+		List<ResultSetStream> streams = new ArrayList<ResultSetStream>();
+		boolean success = false;
+		try {
+			boolean hasOutput = bind(statement, dialect, sql, bindings, parameters);
+			
+			// the default result comes first, followed by the named result sets in order
+			List<String> names = new ArrayList<String>();
+			List<ComplexType> types = new ArrayList<ComplexType>();
+			if (artifact.hasResult()) {
+				names.add(JDBCService.RESULTS);
+				types.add(artifact.getResults());
+			}
+			Map<String, Structure> namedResults = artifact.getNamedResults();
+			for (String name : artifact.getResultSetNames()) {
+				names.add(name);
+				types.add(namedResults.get(name));
+			}
+			
+			boolean keepOpen = resources != null && statement.getConnection().getMetaData().supportsMultipleOpenResults();
+			boolean isResultSet = statement.execute();
+			int index = 0;
+			while (index < names.size()) {
+				if (isResultSet) {
+					ResultSet resultSet = statement.getResultSet();
+					// a result set with an invalid name has no type, it is skipped rather than overwriting another field
+					if (types.get(index) == null) {
+						resultSet.close();
+					}
+					// if the driver closes the current result when moving to the next, only the last one can be streamed
+					else if (resources != null && (keepOpen || index == names.size() - 1)) {
+						ResultSetStream stream = new ResultSetStream(resultSet, types.get(index), resources);
+						streams.add(stream);
+						target.set(names.get(index), toList(stream, transactionId, executionContext));
+					}
+					else {
+						target.set(names.get(index), ResultSetStream.readAll(resultSet, types.get(index)));
+					}
+					if (++index >= names.size()) {
+						break;
+					}
+				}
+				// no more results
+				else if (statement.getUpdateCount() == -1) {
+					break;
+				}
+				isResultSet = keepOpen ? statement.getMoreResults(Statement.KEEP_CURRENT_RESULT) : statement.getMoreResults();
+			}
+			
+			if (hasOutput) {
+				StructureInstance returnValue = null;
+				for (int i = 0; i < bindings.size(); i++) {
+					ParameterBinding binding = bindings.get(i);
+					if (!binding.isOut()) {
+						continue;
+					}
+					if (binding.isCursor()) {
+						ResultSet cursor = (ResultSet) statement.getObject(binding.getIndex());
+						if (cursor != null && namedResults.get(binding.getName()) == null) {
+							cursor.close();
+						}
+						else if (cursor != null && resources != null) {
+							ResultSetStream stream = new ResultSetStream(cursor, namedResults.get(binding.getName()), resources);
+							streams.add(stream);
+							target.set(binding.getName(), toList(stream, transactionId, executionContext));
+						}
+						else if (cursor != null) {
+							target.set(binding.getName(), ResultSetStream.readAll(cursor, namedResults.get(binding.getName())));
+						}
+					}
+					else {
+						if (returnValue == null) {
+							returnValue = artifact.getReturnValue().newInstance();
+						}
+						returnValue.set(binding.getName(), binding.convert(statement.getObject(binding.getIndex())));
+					}
+				}
+				if (returnValue != null) {
+					target.set(StoredProcedureArtifact.RETURN, returnValue);
+				}
+			}
+			success = true;
+		}
+		finally {
+			if (!success) {
+				for (ResultSetStream stream : streams) {
+					stream.close();
+				}
+			}
+		}
+	}
+	
+	// the list is closed at the latest when the transaction ends
+	private static List<ComplexContent> toList(ResultSetStream stream, String transactionId, ExecutionContext executionContext) {
+		LazyList<ComplexContent> list = new LazyList<ComplexContent>(stream);
+		// a flow can not close the list itself, if it is not drained the transaction (the default one if there is no id) makes sure we release the statement and connection
+		if (executionContext != null && executionContext.getTransactionContext() != null) {
+			executionContext.getTransactionContext().add(transactionId, list.asTransactionable());
+		}
+		return list;
+	}
+	
+	// binds the parameters and registers the output parameters, returns whether there is any output
+	private static boolean bind(CallableStatement statement, SQLDialect dialect, String sql, List<ParameterBinding> bindings, ComplexContent parameters) throws SQLException {
+		boolean hasOutput = false;
+		for (int i = 0; i < bindings.size(); i++) {
+			ParameterBinding binding = bindings.get(i);
+			if (binding.isOut()) {
+				statement.registerOutParameter(binding.getIndex(), binding.getSqlType());
+				hasOutput = true;
+			}
+			if (binding.isIn()) {
+				dialect.setObject(statement, binding.getInput(), binding.getIndex(), parameters == null ? null : parameters.get(binding.getName()), sql);
+			}
+		}
+		return hasOutput;
+	}
+	
+	private static boolean hasOutput(List<ParameterBinding> bindings) {
+		for (int i = 0; i < bindings.size(); i++) {
+			if (bindings.get(i).isOut()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// a jdbc batch can not be isolated per item, if it fails we report which items failed and rethrow so the caller can roll back
+	private List<ComplexContent> executeBatch(CallableStatement statement, SQLDialect dialect, String sql, List<ParameterBinding> bindings, List<ComplexContent> items) throws SQLException, ServiceException {
+		List<ComplexContent> results = new ArrayList<ComplexContent>(items.size());
+		try {
+			for (ComplexContent item : items) {
+				bind(statement, dialect, sql, bindings, item);
+				statement.addBatch();
+				results.add(artifact.getBatchResult().newInstance());
+			}
+			if (!items.isEmpty()) {
+				statement.executeBatch();
+			}
+		}
+		catch (BatchUpdateException e) {
+			int [] counts = e.getUpdateCounts();
+			List<Integer> failed = new ArrayList<Integer>();
+			for (int i = 0; i < results.size(); i++) {
+				// some drivers continue after a failure and report on every item, others stop at the first failure
+				if (counts == null || i >= counts.length || counts[i] == Statement.EXECUTE_FAILED) {
+					failed.add(i);
+				}
+			}
+			throw new ServiceException("JDBC-5", "The batch failed for the items " + failed + ": " + e.getMessage(), e);
+		}
+		finally {
+			// a cached statement should not keep a failed batch around
+			statement.clearBatch();
+		}
+		return results;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<ComplexContent> toContents(Object batch) {
+		Iterable<?> iterable;
+		if (batch instanceof Iterable) {
+			iterable = (Iterable<?>) batch;
+		}
+		else {
+			CollectionHandlerProvider handler = CollectionHandlerFactory.getInstance().getHandler().getHandler(batch.getClass());
+			iterable = handler == null ? Arrays.asList(batch) : handler.getAsIterable(batch);
+		}
+		List<ComplexContent> contents = new ArrayList<ComplexContent>();
+		for (Object item : iterable) {
+			if (item != null && !(item instanceof ComplexContent)) {
+				item = ComplexContentWrapperFactory.getInstance().getWrapper().wrap(item);
 			}
+			contents.add((ComplexContent) item);
 		}
-		return converter.convert(value, instanceClass);
+		return contents;
 	}
 	
 }
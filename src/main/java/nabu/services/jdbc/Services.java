@@ -17,22 +17,38 @@
 
 package nabu.services.jdbc;
 
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.jws.WebParam;
 import javax.jws.WebResult;
@@ -43,24 +59,39 @@ import javax.xml.bind.annotation.XmlType;
 
 import be.nabu.eai.api.Hidden;
 import be.nabu.eai.api.NamingConvention;
+import be.nabu.eai.module.services.jdbc.BulkCopy;
+import be.nabu.eai.module.services.jdbc.DatabaseFeatures;
+import be.nabu.eai.module.services.jdbc.GeneratedServiceCache;
+import be.nabu.eai.module.services.jdbc.KeyAllocator;
+import be.nabu.eai.module.services.jdbc.KeyAllocator.SequenceFetcher;
 import be.nabu.eai.module.services.jdbc.JDBCServiceManager;
+import be.nabu.eai.module.services.jdbc.LazyList;
+import be.nabu.eai.module.services.jdbc.QueryExecutor;
+import be.nabu.eai.module.services.jdbc.ReadReplicaRouter;
 import be.nabu.eai.module.services.jdbc.RepositoryDataSourceResolver;
+import be.nabu.eai.module.services.jdbc.ResultCache;
+import be.nabu.eai.module.services.jdbc.TimeOrderedUUID;
+import be.nabu.eai.module.services.jdbc.WriteBuffer;
 import be.nabu.eai.repository.EAIRepositoryUtils;
 import be.nabu.eai.repository.EAIResourceRepository;
 import be.nabu.eai.repository.util.Filter;
 import be.nabu.eai.repository.util.SystemPrincipal;
 import be.nabu.libs.artifacts.api.Artifact;
 import be.nabu.libs.artifacts.api.DataSourceProviderArtifact;
+import be.nabu.libs.converter.ConverterFactory;
 import be.nabu.libs.property.ValueUtils;
 import be.nabu.libs.property.api.Value;
+import be.nabu.libs.services.ForkedExecutionContext;
 import be.nabu.libs.services.ServiceRuntime;
 import be.nabu.libs.services.api.ExecutionContext;
 import be.nabu.libs.services.api.Service;
 import be.nabu.libs.services.api.ServiceDescription;
 import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.Transactionable;
 import be.nabu.libs.services.jdbc.AffixInput;
 import be.nabu.libs.services.jdbc.JDBCService;
 import be.nabu.libs.services.jdbc.JDBCServiceInstance;
+import be.nabu.libs.services.jdbc.JDBCServiceInstance.ConnectionTransactionable;
 import be.nabu.libs.services.jdbc.JDBCUtils;
 import be.nabu.libs.services.jdbc.api.ChangeTracker;
 import be.nabu.libs.services.jdbc.api.DataSourceWithAffixes;
@@ -69,15 +100,18 @@ import be.nabu.libs.services.jdbc.api.SQLDialect;
 import be.nabu.libs.services.jdbc.api.Statistic;
 import be.nabu.libs.services.jdbc.api.DataSourceWithAffixes.AffixMapping;
 import be.nabu.libs.services.pojo.POJOUtils;
+import be.nabu.libs.types.CollectionHandlerFactory;
 import be.nabu.libs.types.ComplexContentWrapperFactory;
 import be.nabu.libs.types.DefinedTypeResolverFactory;
 import be.nabu.libs.types.SimpleTypeWrapperFactory;
 import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.CollectionHandlerProvider;
 import be.nabu.libs.types.api.ComplexContent;
 import be.nabu.libs.types.api.ComplexType;
 import be.nabu.libs.types.api.DefinedType;
 import be.nabu.libs.types.api.Element;
 import be.nabu.libs.types.api.KeyValuePair;
+import be.nabu.libs.types.api.Marshallable;
 import be.nabu.libs.types.api.ModifiableElement;
 import be.nabu.libs.types.api.SimpleType;
 import be.nabu.libs.types.api.Type;
@@ -88,6 +122,7 @@ import be.nabu.libs.types.base.ValueImpl;
 import be.nabu.libs.types.properties.AliasProperty;
 import be.nabu.libs.types.properties.CollectionNameProperty;
 import be.nabu.libs.types.properties.DefaultValueProperty;
+import be.nabu.libs.types.properties.ForeignKeyProperty;
 import be.nabu.libs.types.properties.ForeignNameProperty;
 import be.nabu.libs.types.properties.GeneratedProperty;
 import be.nabu.libs.types.properties.HiddenProperty;
@@ -98,9 +133,14 @@ import be.nabu.libs.types.properties.NameProperty;
 import be.nabu.libs.types.properties.PrimaryKeyProperty;
 import be.nabu.libs.types.properties.RestrictProperty;
 import be.nabu.libs.types.properties.TimezoneProperty;
+import nabu.services.jdbc.types.BatchResult;
+import nabu.services.jdbc.types.Facet;
+import nabu.services.jdbc.types.Facet.FacetValue;
 import nabu.services.jdbc.types.JoinStatement;
+import nabu.services.jdbc.types.KeysetWindow;
 import nabu.services.jdbc.types.Page;
 import nabu.services.jdbc.types.Paging;
+import nabu.services.jdbc.types.RejectedInstance;
 import nabu.services.jdbc.types.StoredProcedure;
 import nabu.services.jdbc.types.StoredProcedureInterface;
 import nabu.services.jdbc.types.TypeDescription;
@@ -108,11 +148,30 @@ import nabu.services.jdbc.types.Window;
 import nabu.services.jdbc.types.StoredProcedureInterface.ParameterType;
 import nabu.services.jdbc.types.StoredProcedureInterface.StoredProcedureParameter;
 
-// TODO: optimize the generated insert/update/select/delete adapters by persisting them (in non-dev mode)
-// currently all the optimizations with regards to JDBC services are basically thrown out as we recreate them for each call
+// the generated insert/update/select/delete adapters are cached per query shape (in non-dev mode), see GeneratedServiceCache
 @WebService
 public class Services {
 	
+	// in ms
+	public static final Long COUNT_CACHE_TTL = Long.parseLong(System.getProperty("be.nabu.jdbc.count.cache.ttl", "30000"));
+	public static final Long ESTIMATE_CACHE_TTL = Long.parseLong(System.getProperty("be.nabu.jdbc.estimate.cache.ttl", "300000"));
+	
+	// whether we select only the columns in the result type rather than everything in the joined tables
+	public static final Boolean PROJECTION = Boolean.parseBoolean(System.getProperty("be.nabu.jdbc.projection", "true"));
+	
+	// whether small writes within a transaction are buffered and combined into larger batches
+	public static final Boolean COALESCE_WRITES = Boolean.parseBoolean(System.getProperty("be.nabu.jdbc.coalesce", "false"));
+	
+	// whether unrelated types are written in parallel when the data source is autocommitted
+	public static final Boolean PARALLEL_WRITES = Boolean.parseBoolean(System.getProperty("be.nabu.jdbc.parallel.writes", "false"));
+	
+	// whether we insert multiple rows per statement, except for the databases (as reported by the driver) that don't support it
+	public static final Boolean MULTI_ROW_INSERT = Boolean.parseBoolean(System.getProperty("be.nabu.jdbc.multi.row", "true"));
+	public static final List<String> MULTI_ROW_INSERT_EXCLUDED = Arrays.asList(System.getProperty("be.nabu.jdbc.multi.row.excluded", "Oracle").split("[\\s]*,[\\s]*"));
+	
+	// the databases (as reported by the driver) that support grouping sets
+	public static final List<String> GROUPING_SETS_PRODUCTS = Arrays.asList(System.getProperty("be.nabu.jdbc.grouping.sets", "PostgreSQL,Oracle,Microsoft SQL Server,DB2").split("[\\s]*,[\\s]*"));
+	
 	ExecutionContext executionContext;
 	
 	public static Services newInstance(ExecutionContext executionContext) {
@@ -149,9 +208,25 @@ public class Services {
 		if (connectionId == null) {
 			connectionId = service.getConnectionId();
 		}
-		if (connectionId == null) {
+		// the plan should come from where the query would actually run
+		String replica = connectionId == null ? ReadReplicaRouter.getInstance().acquire(jdbcServiceId) : null;
+		if (replica != null) {
+			connectionId = replica;
+		}
+		else if (connectionId == null) {
 			connectionId = new RepositoryDataSourceResolver().getDataSourceId(jdbcServiceId);
 		}
+		try {
+			return explain(service, connectionId);
+		}
+		finally {
+			if (replica != null) {
+				ReadReplicaRouter.getInstance().release(replica);
+			}
+		}
+	}
+	
+	private static Explanation explain(JDBCService service, String connectionId) throws SQLException {
 		if (connectionId == null) {
 			throw new IllegalArgumentException("Can not find a valid connection id");
 		}
@@ -295,6 +370,11 @@ public class Services {
 		return Window.build(hasNext, rowCount, offset, limit);
 	}
 	
+	@WebResult(name = "page")
+	public KeysetWindow keysetWindow(@WebParam(name = "limit") Integer limit, @NotNull @WebParam(name = "rowCount") long rowCount, @WebParam(name = "hasNext") Boolean hasNext, @WebParam(name = "continuationToken") String continuationToken) {
+		return KeysetWindow.build(hasNext, rowCount, limit, continuationToken);
+	}
+	
 	@WebResult(name = "inserts")
 	@SuppressWarnings("unchecked")
 	public List<String> buildInserts(@WebParam(name = "instances") List<Object> objects, @NotNull @WebParam(name = "dialect") String dialect, @WebParam(name = "compact") Boolean compact) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
@@ -423,6 +503,13 @@ public class Services {
 					parameter.setNullable(isNullable != null && isNullable.equalsIgnoreCase("YES"));
 				}
 				parameter.setSqlType(columns.getInt("DATA_TYPE"));
+				// the sql type is not always enough to recognize cursors (e.g. postgresql reports "other")
+				String typeName = columns.getString("TYPE_NAME");
+				if (typeName != null) {
+					Map<String, String> properties = new HashMap<String, String>();
+					properties.put("typeName", typeName);
+					parameter.setProperties(properties);
+				}
 				parameter.setProcedure(procedureName);
 				parameters.add(parameter);
 			}
@@ -475,7 +562,9 @@ public class Services {
 		grouped.get(type).add((ComplexContent) instance);
 	}
 	
-	private String generateInsert(ComplexType type, boolean merge) {
+	// if we insert multiple rows in one statement, the parameters of each row are suffixed with the index of the row
+	// if we skip unchanged rows in a merge, the existing row is only updated if at least one column is different
+	private String generateInsert(ComplexType type, boolean merge, int rows, boolean skipUnchanged) {
 		StringBuilder sql = new StringBuilder();
 		String idField = null;
 		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
@@ -501,18 +590,42 @@ public class Services {
 		if (sql.toString().isEmpty()) {
 			return null;
 		}
-		String result = "insert into ~" + EAIRepositoryUtils.uncamelify(getName(type)) + " (\n" + EAIRepositoryUtils.uncamelify(sql.toString()) + "\n) values (\n" + sql.toString().replaceAll("([\\w]+)", ":$1") + "\n)";
+		String values;
+		if (rows <= 0) {
+			values = "(\n" + sql.toString().replaceAll("([\\w]+)", ":$1") + "\n)";
+		}
+		else {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < rows; i++) {
+				if (i > 0) {
+					builder.append(",\n");
+				}
+				builder.append("(\n" + sql.toString().replaceAll("([\\w]+)", ":$1_" + i) + "\n)");
+			}
+			values = builder.toString();
+		}
+		String result = "insert into ~" + EAIRepositoryUtils.uncamelify(getName(type)) + (merge && skipUnchanged ? " as existing" : "") + " (\n" + EAIRepositoryUtils.uncamelify(sql.toString()) + "\n) values " + values;
 		if (merge) {
 			if (idField == null) {
 				throw new IllegalStateException("Can only auto merge if a primary key field is present");
 			}
 			result += "\non conflict(" + idField + ") do update set";
 			result += "\n" + EAIRepositoryUtils.uncamelify(sql.toString()).replaceAll("([\\w]+)", "$1 = excluded.$1");
+			// this prevents rewriting identical rows (and the dead tuples, wal and change tracking that come with it)
+			if (skipUnchanged) {
+				String columns = EAIRepositoryUtils.uncamelify(sql.toString()).replaceAll("[\\s]+", "");
+				result += "\nwhere (" + columns.replaceAll("([\\w]+)", "existing.$1").replace(",", ", ") + ") is distinct from (" + columns.replaceAll("([\\w]+)", "excluded.$1").replace(",", ", ") + ")";
+			}
 		}
 		return result;
 	}
 	
 	private String generateUpdate(ComplexType type) {
+		return generateUpdate(type, null);
+	}
+	
+	// if fields are passed in, only those are updated
+	private String generateUpdate(ComplexType type, Collection<String> fields) {
 		StringBuilder sql = new StringBuilder();
 		String idField = null;
 		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
@@ -529,6 +642,10 @@ public class Services {
 				continue;
 			}
 			
+			if (fields != null && !fields.contains(child.getName())) {
+				continue;
+			}
+			
 			if (!sql.toString().isEmpty()) {
 				sql.append(",\n");
 			}
@@ -572,7 +689,7 @@ public class Services {
 	
 	@SuppressWarnings("unchecked")
 	@WebResult(name = "select")
-	public JDBCSelectResult select(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @NotNull @WebParam(name = "typeId") String typeId, @WebParam(name = "offset") Long offset, @WebParam(name = "limit") Integer limit, @WebParam(name = "orderBy") List<String> orderBy, @WebParam(name = "totalRowCount") Boolean totalRowCount, @WebParam(name = "hasNext") Boolean hasNext, @WebParam(name = "instanceId") Object id, @WebParam(name = "query") Object query, @WebParam(name = "language") String language) throws ServiceException {
+	public JDBCSelectResult select(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @NotNull @WebParam(name = "typeId") String typeId, @WebParam(name = "offset") Long offset, @WebParam(name = "limit") Integer limit, @WebParam(name = "orderBy") List<String> orderBy, @WebParam(name = "totalRowCount") Boolean totalRowCount, @WebParam(name = "hasNext") Boolean hasNext, @WebParam(name = "instanceId") Object id, @WebParam(name = "query") Object query, @WebParam(name = "language") String language, @WebParam(name = "cache") Boolean cache, @WebParam(name = "fields") List<String> projection) throws ServiceException {
 		ComplexType resolve = (ComplexType) DefinedTypeResolverFactory.getInstance().getResolver().resolve(typeId);
 		if (resolve == null) {
 			throw new IllegalArgumentException("Could not find type: " + typeId);
@@ -644,7 +761,8 @@ public class Services {
 			fields.clear();
 		}
 		
-		String sql = "select * from " + from.toString();
+		String selection = buildProjection(resolve, types, names, projection, orderBy);
+		String sql = "select " + (selection == null ? "*" : selection) + " from " + from.toString();
 		
 		List<Element<?>> queryParameters = new ArrayList<Element<?>>();
 		if (query != null) {
@@ -707,33 +825,45 @@ public class Services {
 		sql += where.toString();
 		
 		String serviceId = typeId + ":generated.select" + (idField == null ? "" : "ById");
-		JDBCService jdbc = new JDBCService(serviceId);
-		jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
-		jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
-		jdbc.setInputGenerated(true);
-		jdbc.setOutputGenerated(false);
-		jdbc.setResults(resolve);
-		jdbc.setSql(sql);
-		
-		// we have regenerated the input, now set the correct input type
-		if (idField != null) {
-			Element<?> element = jdbc.getParameters().get("id");
-			((ModifiableElement<?>) element).setType(idField.getType());
-		}
-		
+
+		// the sql captures most of the shape, the query parameters can additionally influence the typing of the input
+		StringBuilder cacheKey = new StringBuilder(serviceId).append("\n").append(sql);
 		for (Element<?> queryParameter : queryParameters) {
-			Element<?> element = jdbc.getParameters().get(queryParameter.getName());
-			// get the type as defined in the structure
-			((ModifiableElement<?>) element).setType(availableFields.get(queryParameter.getName()).getType());
-			// get list properties from the query
-			Value<Integer> maxOccurs = queryParameter.getProperty(MaxOccursProperty.getInstance());
-			Value<Integer> minOccurs = queryParameter.getProperty(MinOccursProperty.getInstance());
-			if (maxOccurs != null) {
-				element.setProperty(maxOccurs);
+			cacheKey.append("\n").append(queryParameter.getName())
+				.append(":").append(ValueUtils.getValue(MinOccursProperty.getInstance(), queryParameter.getProperties()))
+				.append(":").append(ValueUtils.getValue(MaxOccursProperty.getInstance(), queryParameter.getProperties()));
+		}
+		JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey.toString());
+		if (jdbc == null) {
+			jdbc = new JDBCService(serviceId);
+			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+			jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+			jdbc.setInputGenerated(true);
+			jdbc.setOutputGenerated(false);
+			jdbc.setResults(resolve);
+			jdbc.setSql(sql);
+
+			// we have regenerated the input, now set the correct input type
+			if (idField != null) {
+				Element<?> element = jdbc.getParameters().get("id");
+				((ModifiableElement<?>) element).setType(idField.getType());
 			}
-			if (minOccurs != null) {
-				element.setProperty(minOccurs);
+
+			for (Element<?> queryParameter : queryParameters) {
+				Element<?> element = jdbc.getParameters().get(queryParameter.getName());
+				// get the type as defined in the structure
+				((ModifiableElement<?>) element).setType(availableFields.get(queryParameter.getName()).getType());
+				// get list properties from the query
+				Value<Integer> maxOccurs = queryParameter.getProperty(MaxOccursProperty.getInstance());
+				Value<Integer> minOccurs = queryParameter.getProperty(MinOccursProperty.getInstance());
+				if (maxOccurs != null) {
+					element.setProperty(maxOccurs);
+				}
+				if (minOccurs != null) {
+					element.setProperty(minOccurs);
+				}
 			}
+			jdbc = GeneratedServiceCache.getInstance().put(cacheKey.toString(), jdbc);
 		}
 		
 		// create a new instance of the parameters so we can set the (optional) id
@@ -760,16 +890,226 @@ public class Services {
 			input.set("language", language);
 		}
 		
-		ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
-		ComplexContent output = runtime.run(input);
+		String resultCacheKey = cache != null && cache && canUseResultCache(jdbc, connection, transaction, executionContext) ? getResultCacheKey(jdbc, input) : null;
+		Set<String> tables = resultCacheKey == null ? null : getTables(types, sql);
+		long generation = tables == null ? 0 : ResultCache.getInstance().getGeneration(tables);
+		if (resultCacheKey != null) {
+			JDBCSelectResult cached = getCachedResult(resultCacheKey);
+			if (cached != null) {
+				return cached;
+			}
+		}
 		
-		return new JDBCSelectResult(
+		ComplexContent output = runRead(jdbc, input, executionContext);
+		
+		JDBCSelectResult result = new JDBCSelectResult(
 			(List<Object>) output.get(JDBCService.RESULTS), 
 			(Long) output.get(JDBCService.ROW_COUNT), 
 			(Long) output.get(JDBCService.TOTAL_ROW_COUNT), 
 			(Boolean) output.get(JDBCService.HAS_NEXT),
 			(List<Statistic>) output.get(JDBCService.STATISTICS)
 		);
+		if (resultCacheKey != null) {
+			cacheResult(resultCacheKey, tables, generation, result);
+		}
+		return result;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@WebResult(name = "select")
+	@ServiceDescription(description = "Select any number of instances of the given type by their primary key. The results are returned in the order of the requested ids.")
+	public JDBCSelectResult selectByIds(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @NotNull @WebParam(name = "typeId") String typeId, @WebParam(name = "ids") List<Object> ids, @WebParam(name = "language") String language) throws ServiceException {
+		ComplexType resolve = (ComplexType) DefinedTypeResolverFactory.getInstance().getResolver().resolve(typeId);
+		if (resolve == null) {
+			throw new IllegalArgumentException("Could not find type: " + typeId);
+		}
+		if (ids == null || ids.isEmpty()) {
+			return new JDBCSelectResult(new ArrayList<Object>(), 0l, null, false, null);
+		}
+		List<ComplexType> types = new ArrayList<ComplexType>();
+		ComplexType result = resolve;
+		while (result != null) {
+			types.add(result);
+			result = (ComplexType) result.getSuperType();
+		}
+		Collections.reverse(types);
+		
+		// the same join as the select
+		Map<ComplexType, String> names = JDBCServiceManager.generateNames(types);
+		StringBuilder from = new StringBuilder();
+		ComplexType previous = null;
+		String previousCollectionName = null;
+		Element<?> idField = null;
+		String idColumn = null;
+		List<Element<?>> fields = new ArrayList<Element<?>>();
+		for (ComplexType type : types) {
+			for (Element<?> child : type) {
+				fields.add(child);
+			}
+			Boolean value = ValueUtils.getValue(HiddenProperty.getInstance(), type.getProperties());
+			if (value != null && value) {
+				continue;
+			}
+			String typeName = EAIRepositoryUtils.uncamelify(JDBCUtils.getTypeName(type, true));
+			if (previousCollectionName == null || !previousCollectionName.equals(typeName)) {
+				if (previous != null) {
+					String previousName = names.get(previous);
+					List<String> binding = JDBCUtils.getBinding(type, previous);
+					from.append(" join ~" + typeName + " " + names.get(type)).append(" on " + names.get(type) + "." + EAIRepositoryUtils.uncamelify(binding.get(0)) + " = " + previousName + "." + EAIRepositoryUtils.uncamelify(binding.get(1)));
+				}
+				else {
+					from.append(" ~").append(typeName + " " + names.get(type));
+				}
+			}
+			if (idField == null) {
+				for (Element<?> child : fields) {
+					Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+					if (property != null && property.getValue()) {
+						idField = child;
+						idColumn = names.get(type) + "." + EAIRepositoryUtils.uncamelify(child.getName());
+						break;
+					}
+				}
+				if (idField == null) {
+					throw new IllegalArgumentException("Could not find id field for type " + type);
+				}
+			}
+			previous = type;
+			previousCollectionName = typeName;
+			fields.clear();
+		}
+		
+		// we query every id only once, but return them in the requested order
+		Class<?> idClass = idField.getType() instanceof SimpleType ? ((SimpleType<?>) idField.getType()).getInstanceClass() : null;
+		List<Object> distinctIds = new ArrayList<Object>();
+		Set<Object> seen = new HashSet<Object>();
+		for (Object id : ids) {
+			if (id == null) {
+				continue;
+			}
+			if (idClass != null && !idClass.isInstance(id)) {
+				id = ConverterFactory.getInstance().getConverter().convert(id, idClass);
+			}
+			if (seen.add(id)) {
+				distinctIds.add(id);
+			}
+		}
+		
+		String serviceId = typeId + ":generated.selectByIds";
+		SQLDialect dialect = getDialect(connection, serviceId);
+		boolean useArray = dialect != null && dialect.hasArraySupport(idField);
+		
+		Map<Object, Object> found = new HashMap<Object, Object>();
+		for (List<Object> chunk : chunk(distinctIds, useArray ? MAX_ARRAY_SIZE : MAX_PARAMETERS, !useArray)) {
+			String sql = "select * from" + from.toString() + " where " + idColumn + (useArray ? " = any(:ids)" : " in (" + getParameterList("id", chunk.size()) + ")");
+			String cacheKey = serviceId + "\n" + sql;
+			JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+			if (jdbc == null) {
+				jdbc = new JDBCService(serviceId);
+				jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+				jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+				jdbc.setInputGenerated(true);
+				jdbc.setOutputGenerated(false);
+				jdbc.setResults(resolve);
+				jdbc.setSql(sql);
+				for (Element<?> element : TypeUtils.getAllChildren(jdbc.getParameters())) {
+					((ModifiableElement<?>) element).setType(idField.getType());
+					if (useArray) {
+						element.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
+					}
+				}
+				jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+			}
+			ComplexContent parameters = jdbc.getParameters().newInstance();
+			if (useArray) {
+				parameters.set("ids", chunk);
+			}
+			else {
+				for (int i = 0; i < chunk.size(); i++) {
+					parameters.set("id" + i, chunk.get(i));
+				}
+			}
+			ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+			input.set(JDBCService.CONNECTION, connection);
+			input.set(JDBCService.TRANSACTION, transaction);
+			input.set(JDBCService.PARAMETERS, parameters);
+			if (language != null && jdbc.getServiceInterface().getInputDefinition().get("language") != null) {
+				input.set("language", language);
+			}
+			flushWrites(connection, transaction, serviceId, ResultCache.getTables(sql), executionContext);
+			ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
+			ComplexContent output = runtime.run(input);
+			List<Object> results = (List<Object>) output.get(JDBCService.RESULTS);
+			if (results != null) {
+				for (Object single : results) {
+					ComplexContent content = single instanceof ComplexContent ? (ComplexContent) single : ComplexContentWrapperFactory.getInstance().getWrapper().wrap(single);
+					found.put(content.get(idField.getName()), single);
+				}
+			}
+		}
+		
+		List<Object> results = new ArrayList<Object>();
+		for (Object id : distinctIds) {
+			Object single = found.get(id);
+			if (single != null) {
+				results.add(single);
+			}
+		}
+		return new JDBCSelectResult(results, (long) results.size(), null, false, null);
+	}
+	
+	// the maximum amount of bind parameters we use in a single statement, most drivers (or databases) have a limit on this (e.g. 2100 for mssql, 1000 items in an in list for oracle)
+	public static final Integer MAX_PARAMETERS = Integer.parseInt(System.getProperty("be.nabu.jdbc.max.parameters", "1000"));
+	// arrays are a single parameter but we still don't want to send unbounded arrays
+	public static final Integer MAX_ARRAY_SIZE = Integer.parseInt(System.getProperty("be.nabu.jdbc.max.array", "10000"));
+	
+	private static SQLDialect getDialect(String connection, String serviceId) {
+		if (connection == null) {
+			connection = new RepositoryDataSourceResolver().getDataSourceId(serviceId);
+		}
+		Artifact artifact = connection == null ? null : EAIResourceRepository.getInstance().resolve(connection);
+		return artifact instanceof DataSourceWithDialectProviderArtifact ? ((DataSourceWithDialectProviderArtifact) artifact).getDialect() : null;
+	}
+	
+	private static DatabaseFeatures getFeatures(String connection, String serviceId) throws ServiceException {
+		if (connection == null) {
+			connection = new RepositoryDataSourceResolver().getDataSourceId(serviceId);
+		}
+		try {
+			return DatabaseFeatures.get(connection);
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	// when padding, the chunks are filled up with the last value to the next power of two (capped at the chunk size)
+	// this limits the amount of distinct in-lists (and thus statements) the database has to plan
+	// arrays are bound as a single parameter so they never need padding
+	private static List<List<Object>> chunk(List<Object> values, int size, boolean pad) {
+		List<List<Object>> chunks = new ArrayList<List<Object>>();
+		for (int i = 0; i < values.size(); i += size) {
+			List<Object> chunk = new ArrayList<Object>(values.subList(i, Math.min(values.size(), i + size)));
+			if (pad) {
+				int padded = Math.min(size, Integer.highestOneBit(chunk.size()) == chunk.size() ? chunk.size() : Integer.highestOneBit(chunk.size()) << 1);
+				while (chunk.size() < padded) {
+					chunk.add(chunk.get(chunk.size() - 1));
+				}
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+	
+	private static String getParameterList(String prefix, int amount) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < amount; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(":").append(prefix).append(i);
+		}
+		return builder.toString();
 	}
 	
 	public static List<String> inputOperators = Arrays.asList("=", "<>", ">", "<", ">=", "<=", "like", "ilike", "not like", "not ilike");
@@ -789,6 +1129,11 @@ public class Services {
 		return false;
 	}
 	
+	// whether or not the filter is bound to an input parameter
+	private static boolean hasInput(Filter filter) {
+		return filter.getValues() != null && !filter.getValues().isEmpty() && !skipFilter(filter) && inputOperators.contains(filter.getOperator());
+	}
+	
 	private static boolean inverseFilter(Filter filter) {
 		if (!inputOperators.contains(filter.getOperator()) && filter.getValues() != null && !filter.getValues().isEmpty()) {
 			Object object = filter.getValues().get(0);
@@ -811,14 +1156,23 @@ public class Services {
 			@WebParam(name = "hasNext") Boolean hasNext,
 			@WebParam(name = "filters") List<Filter> filters,
 			@WebParam(name = "language") String language,
-			// doesn't work atm, simply because we can't feed back the resultset (it's not a list..)
+			// the results are fetched while you go through them, the connection is held until they are drained or closed (or the transaction ends)
 			@WebParam(name = "lazy") Boolean lazy,
-			@WebParam(name = "joins") List<JoinStatement> joins) throws ServiceException {
+			@WebParam(name = "joins") List<JoinStatement> joins,
+			// use keyset pagination instead of offset paging, this is implied if you pass in a continuation token
+			@WebParam(name = "keyset") Boolean keyset,
+			// the continuation token of the previous window
+			@WebParam(name = "continuationToken") String continuationToken,
+			// cache the result until one of the tables involved is written to
+			@WebParam(name = "cache") Boolean cache,
+			// limit the fields that are selected, by default all the fields in the type are selected
+			@WebParam(name = "fields") List<String> fields,
+			// like statistics but calculated in a single query where the database supports grouping sets
+			@WebParam(name = "facets") List<String> facets) throws ServiceException {
 		
-		return selectFiltered(connection, transaction, typeId, offset, limit, orderBy, totalRowCount, estimateRowCount, hasNext, filters, language, executionContext, null, null, lazy, joins, statistics);
+		return selectFiltered(connection, transaction, typeId, offset, limit, orderBy, totalRowCount, estimateRowCount, hasNext, filters, language, executionContext, null, null, lazy, joins, statistics, keyset, continuationToken, cache, fields, facets);
 	}
 	
-	@SuppressWarnings("unchecked")
 	public static JDBCSelectResult selectFiltered(
 			String connection, 
 			String transaction, 
@@ -837,14 +1191,36 @@ public class Services {
 			Boolean lazy,
 			List<JoinStatement> joins,
 			List<String> statistics) throws ServiceException {
+		return selectFiltered(connection, transaction, typeId, offset, limit, orderBy, totalRowCount, estimateRowCount, hasNext, filters, language, executionContext, groupBy, selection, lazy, joins, statistics, null, null, null, null, null);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static JDBCSelectResult selectFiltered(
+			String connection, 
+			String transaction, 
+			String typeId, 
+			Long offset, 
+			Integer limit, 
+			List<String> orderBy, 
+			Boolean totalRowCount, 
+			Boolean estimateRowCount,
+			Boolean hasNext,
+			List<Filter> filters,
+			String language,
+			ExecutionContext executionContext,
+			List<String> groupBy,
+			String selection,
+			Boolean lazy,
+			List<JoinStatement> joins,
+			List<String> statistics,
+			Boolean keyset,
+			String continuationToken,
+			Boolean cache,
+			List<String> fields,
+			List<String> facets) throws ServiceException {
 		
 		String serviceId = typeId + ":generated.selectFiltered";
-		JDBCService jdbc = new JDBCService(serviceId);
-		jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
 		RepositoryDataSourceResolver dataSourceResolver = new RepositoryDataSourceResolver();
-		jdbc.setDataSourceResolver(dataSourceResolver);
-		jdbc.setInputGenerated(true);
-		jdbc.setOutputGenerated(false);
 		
 		String dataSourceId = dataSourceResolver.getDataSourceId(serviceId);
 		SQLDialect dialect = dataSourceId == null ? null : ((DataSourceWithDialectProviderArtifact) EAIResourceRepository.getInstance().resolve(dataSourceId)).getDialect();
@@ -853,7 +1229,6 @@ public class Services {
 		if (resolve == null) {
 			throw new IllegalArgumentException("Could not find type: " + typeId);
 		}
-		jdbc.setResults(resolve);
 		
 		// build FROM
 		StringBuilder from = new StringBuilder();
@@ -951,15 +1326,56 @@ public class Services {
 			useDistinct = false;
 		}
 		
+		// if we group by, the numeric group by relies on the order of the fields in the type, we don't want to interfere with that
+		if (selection == null && (groupBy == null || groupBy.isEmpty())) {
+			selection = buildProjection(resolve, types, names, fields, orderBy);
+		}
 		String sql = "select " + (useDistinct ? "distinct " : "") + (selection == null ? "*" : selection) + " from " + from.toString();
 		
+		String where = "";
 		if (filters != null && !filters.isEmpty()) {
-			String where = buildWhere(filters, types, names, statistics != null && !statistics.isEmpty());
-			// could be we skipped all filters!
-			if (!where.isEmpty()) {
-				sql += " where" + where;
+			where = buildWhere(filters, types, names, statistics != null && !statistics.isEmpty());
+		}
+		
+		// keyset pagination is only possible if we can express the ordering as a single row value comparison
+		// if that is not the case, we fall back to offset paging
+		String filterWhere = where;
+		boolean useKeyset = continuationToken != null || (keyset != null && keyset);
+		List<SeekField> seekFields = useKeyset && (groupBy == null || groupBy.isEmpty()) ? getSeekFields(orderBy, types, names) : null;
+		List<Object> seekValues = null;
+		if (seekFields != null) {
+			// make sure we order on the full key, the primary key is added last to make the order deterministic
+			SeekField last = seekFields.get(seekFields.size() - 1);
+			if (last.added) {
+				orderBy = orderBy == null ? new ArrayList<String>() : new ArrayList<String>(orderBy);
+				orderBy.add(last.element.getName() + (last.descending ? " desc" : ""));
+			}
+			if (continuationToken != null) {
+				seekValues = decodeContinuationToken(continuationToken, seekFields);
+				DatabaseFeatures features;
+				try {
+					features = DatabaseFeatures.get(dataSourceId);
+				}
+				catch (SQLException e) {
+					throw new ServiceException(e);
+				}
+				String seek = buildSeekPredicate(seekFields, seekValues, features);
+				where = where.isEmpty() ? " " + seek : " (" + where.trim() + ") and " + seek;
+				// the keyset replaces the offset
+				offset = null;
 			}
 		}
+		else if (continuationToken != null) {
+			throw new IllegalArgumentException("The continuation token can not be used with the given order by");
+		}
+		
+		// the seek predicate only selects the page, any counts are done on the full filtered set
+		String countSql = seekValues == null ? null : sql + (filterWhere.isEmpty() ? "" : " where" + filterWhere);
+		
+		// could be we skipped all filters!
+		if (!where.isEmpty()) {
+			sql += " where" + where;
+		}
 		
 		boolean useNumericGroupBy = dialect != null && dialect.supportNumericGroupBy();
 		
@@ -993,49 +1409,15 @@ public class Services {
 			}
 		}
 		
-		// triggers generation of input, now we update it
-		jdbc.setSql(sql);
-		
-		if (filters != null && !filters.isEmpty()) {
-			int counter = 0;
-			for (Filter filter : filters) {
-				if (filter.getValues() != null && !filter.getValues().isEmpty() && !skipFilter(filter) && inputOperators.contains(filter.getOperator())) {
-					Element<?> source = resolve.get(filter.getKey());
-					// can be a restricted extension
-					if (source == null && resolve.getSuperType() instanceof ComplexType) {
-						source = ((ComplexType) resolve.getSuperType()).get(filter.getKey());
-					}
-					Element<?> target = jdbc.getParameters().get("input" + counter++);
-					// inherit the type and properties
-					if (source != null && target != null) {
-						((ModifiableElement<?>) target).setType(source.getType());
-						Value<?>[] properties = source.getProperties();
-						// we need timezone information and potentially date formatting rules etc to determine granularity
-						for (Value<?> value : properties) {
-							if (!value.getProperty().getName().equals("name")) {
-								((ModifiableElement<?>) target).setProperty(value);
-							}
-						}
-						// if we have a list, let's set it
-						if (filter.getValues() != null && filter.getValues().size() >= 2) {
-							target.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
-						}
-						
-					}
-					// @2024-05-30: not ideal, the inputs are named using generic input and counter naming
-					// however for statistics we need to know which field the input operates on so we know which fields to unset to calculate a particular statistic
-					// we use the label property instead of the alias because the alias can have implications for marshalling etc, label should not (unless you are using excel marshalling and the like...)
-					target.setProperty(new ValueImpl<String>(LabelProperty.getInstance(), filter.getKey()));
-				}
-			}
-		}
+		JDBCService jdbc = getFilteredService(serviceId, sql, resolve, filters, seekValues == null ? null : seekFields, dataSourceResolver);
 		
 		ComplexContent newInstance = jdbc.getParameters().newInstance();
-		if (filters != null) {
-			int counter = 0;
-			for (Filter filter : filters) {
-				if (filter.getValues() != null && !filter.getValues().isEmpty() && !skipFilter(filter) && inputOperators.contains(filter.getOperator())) {
-					newInstance.set("input" + counter++, filter.getValues().size() == 1 ? filter.getValues().get(0) : filter.getValues());
+		setFilterParameters(newInstance, filters);
+		if (seekValues != null) {
+			for (int i = 0; i < seekValues.size(); i++) {
+				// null values are part of the sql, not of the parameters
+				if (seekValues.get(i) != null) {
+					newInstance.set("seek" + i, seekValues.get(i));
 				}
 			}
 		}
@@ -1072,29 +1454,927 @@ public class Services {
 		// make sure we validate the input
 //		jdbc.setValidateInput(true);
 		
-		ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
-		ComplexContent output = runtime.run(input);
-		// TODO: when doing a lazy select, we get back a resultsetwithtype which _has_ a collection handler, it can't be cast to a list however. "could" implement a list around a generic collection to expose it as such?
-		return new JDBCSelectResult(
-			(List<Object>) output.get(JDBCService.RESULTS), 
+		// lazy results are fetched while they are read, we can not cache them
+		// the facets are calculated separately but they are part of the cached result
+		String resultCacheKey = cache != null && cache && (lazy == null || !lazy) && canUseResultCache(jdbc, connection, transaction, executionContext) ? getResultCacheKey(jdbc, input) + (facets == null || facets.isEmpty() ? "" : "\nfacets=" + facets) : null;
+		// the generation is taken before we read, writes that are done in the meantime prevent us from caching a stale result
+		Set<String> tables = getTables(types, sql);
+		long generation = ResultCache.getInstance().getGeneration(tables);
+		if (resultCacheKey != null) {
+			JDBCSelectResult cached = getCachedResult(resultCacheKey);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		
+		// the total count and the statistics are independent of the page, if the transaction has no connection open yet, we can calculate them in parallel on a separate connection
+		// once a connection is open we need to see the same (uncommitted) state so we stay on that connection and run them sequentially
+		boolean needsCount = (totalRowCount != null && totalRowCount) || (estimateRowCount != null && estimateRowCount) || (statistics != null && !statistics.isEmpty());
+		
+		// with a seek predicate the counts are calculated separately on the full filtered set
+		JDBCService countJdbc = jdbc;
+		ComplexContent countInput = input;
+		if (needsCount && countSql != null) {
+			countJdbc = getFilteredService(serviceId, countSql, resolve, filters, null, dataSourceResolver);
+			ComplexContent countParameters = countJdbc.getParameters().newInstance();
+			setFilterParameters(countParameters, filters);
+			countInput = countJdbc.getServiceInterface().getInputDefinition().newInstance();
+			countInput.set(JDBCService.CONNECTION, connection);
+			countInput.set(JDBCService.TRANSACTION, transaction);
+			countInput.set(JDBCService.PARAMETERS, countParameters);
+			countInput.set(JDBCService.INCLUDE_TOTAL_COUNT, totalRowCount);
+			countInput.set(JDBCService.INCLUDE_ESTIMATE_COUNT, estimateRowCount);
+			if (statistics != null) {
+				countInput.set(JDBCService.STATISTICS, statistics);
+			}
+			if (language != null && countJdbc.getServiceInterface().getInputDefinition().get("language") != null) {
+				countInput.set("language", language);
+			}
+			input.set(JDBCService.INCLUDE_TOTAL_COUNT, false);
+			input.set(JDBCService.INCLUDE_ESTIMATE_COUNT, false);
+			input.set(JDBCService.STATISTICS, null);
+		}
+		
+		// if you opt in to caching: users tend to page through the same filtered set, the count of that set is cached for a short while (or until it is written to)
+		// we don't do this once the transaction has a connection open as it might see uncommitted data, and the statistics are too specific to cache
+		String countCacheKey = null;
+		Long cachedCount = null;
+		if (needsCount && cache != null && cache && COUNT_CACHE_TTL > 0 && !hasOpenTransaction(connection == null ? dataSourceId : connection, transaction, executionContext) && (statistics == null || statistics.isEmpty())) {
+			boolean estimate = totalRowCount == null || !totalRowCount;
+			countCacheKey = estimate 
+				? getEstimateCacheKey(connection == null ? dataSourceId : connection, getTables(types, sql), from.toString(), filterWhere, newInstance)
+				: "count:" + getResultCacheKey(countJdbc, countInput, JDBCService.LIMIT, JDBCService.OFFSET, JDBCService.ORDER_BY, JDBCService.HAS_NEXT, JDBCService.INCLUDE_TOTAL_COUNT, JDBCService.INCLUDE_ESTIMATE_COUNT, JDBCService.STATISTICS, JDBCService.LAZY);
+			cachedCount = (Long) ResultCache.getInstance().get(countCacheKey);
+			if (cachedCount != null) {
+				needsCount = false;
+				input.set(JDBCService.INCLUDE_TOTAL_COUNT, false);
+				input.set(JDBCService.INCLUDE_ESTIMATE_COUNT, false);
+			}
+		}
+		
+		Future<ComplexContent> countFuture = null;
+		ComplexContent countOutput = null;
+		// a null transaction is the default transaction of the context, we can only go to a separate connection if nothing is open on this one
+		if (needsCount && !hasOpenTransaction(connection == null ? dataSourceId : connection, transaction, executionContext) && (lazy == null || !lazy) && QueryExecutor.isEnabled() && executionContext != null) {
+			countFuture = submitCount(countJdbc, countInput, executionContext);
+			input.set(JDBCService.INCLUDE_TOTAL_COUNT, false);
+			input.set(JDBCService.INCLUDE_ESTIMATE_COUNT, false);
+			input.set(JDBCService.STATISTICS, null);
+		}
+		else if (needsCount && countJdbc != jdbc) {
+			countOutput = runRead(countJdbc, newCountInput(countJdbc, countInput), executionContext);
+		}
+		
+		ComplexContent output;
+		try {
+			output = runRead(jdbc, input, executionContext);
+		}
+		catch (ServiceException e) {
+			if (countFuture != null) {
+				countFuture.cancel(true);
+			}
+			throw e;
+		}
+		if (countFuture != null) {
+			countOutput = await(countFuture);
+		}
+		if (countOutput != null) {
+			output.set(JDBCService.TOTAL_ROW_COUNT, countOutput.get(JDBCService.TOTAL_ROW_COUNT));
+			output.set(JDBCService.STATISTICS, countOutput.get(JDBCService.STATISTICS));
+		}
+		if (cachedCount != null) {
+			output.set(JDBCService.TOTAL_ROW_COUNT, cachedCount);
+		}
+		else if (countCacheKey != null && output.get(JDBCService.TOTAL_ROW_COUNT) != null) {
+			// estimates are planner based and are not affected much by individual writes, they are not bound to the tables but live longer
+			if (countCacheKey.startsWith("estimate:")) {
+				ResultCache.getInstance().put(countCacheKey, new ArrayList<String>(), output.get(JDBCService.TOTAL_ROW_COUNT), 1, ESTIMATE_CACHE_TTL, 0);
+			}
+			else {
+				ResultCache.getInstance().put(countCacheKey, tables, output.get(JDBCService.TOTAL_ROW_COUNT), 1, COUNT_CACHE_TTL, generation);
+			}
+		}
+		
+		List<Object> results;
+		// when doing a lazy select, we get back a resultsetwithtype which _has_ a collection handler but is not a list
+		if (lazy != null && lazy) {
+			results = toLazyList(output.get(JDBCService.RESULTS), transaction, executionContext);
+		}
+		else {
+			results = (List<Object>) output.get(JDBCService.RESULTS);
+		}
+		JDBCSelectResult result = new JDBCSelectResult(
+			results, 
 			(Long) output.get(JDBCService.ROW_COUNT), 
 			(Long) output.get(JDBCService.TOTAL_ROW_COUNT), 
 			(Boolean) output.get(JDBCService.HAS_NEXT),
 			(List<Statistic>) output.get(JDBCService.STATISTICS)
 		);
+		// if we have a full window, there might be more, build a token for the next window
+		// when streaming we don't know the last row up front
+		if (seekFields != null && !(results instanceof LazyList) && result.getResults() != null && !result.getResults().isEmpty()) {
+			boolean full = result.isHasNext() != null ? result.isHasNext() : limit != null && result.getResults().size() >= limit;
+			if (full) {
+				result.setContinuationToken(encodeContinuationToken(result.getResults().get(result.getResults().size() - 1), seekFields));
+			}
+		}
+		if (facets != null && !facets.isEmpty()) {
+			result.setFacets(calculateFacets(serviceId, facets, filters, types, names, from.toString(), jdbc, newInstance, connection == null ? dataSourceId : connection, connection, transaction, executionContext));
+		}
+		if (resultCacheKey != null) {
+			cacheResult(resultCacheKey, tables, generation, result);
+		}
+		return result;
 	}
-
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+	
+	private static JDBCService getFilteredService(String serviceId, String sql, ComplexType resolve, List<Filter> filters, List<SeekField> seekFields, RepositoryDataSourceResolver dataSourceResolver) {
+		// the generated sql (together with the type) fully determines the shape of the service
+		String cacheKey = serviceId + "\n" + sql;
+		JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+		if (jdbc == null) {
+			jdbc = new JDBCService(serviceId);
+			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+			jdbc.setDataSourceResolver(dataSourceResolver);
+			jdbc.setInputGenerated(true);
+			jdbc.setOutputGenerated(false);
+			jdbc.setResults(resolve);
+			
+			// triggers generation of input, now we update it
+			jdbc.setSql(sql);
+		
+			if (filters != null && !filters.isEmpty()) {
+				int counter = 0;
+				for (Filter filter : filters) {
+					if (filter.getValues() != null && !filter.getValues().isEmpty() && !skipFilter(filter) && inputOperators.contains(filter.getOperator())) {
+						Element<?> source = resolve.get(filter.getKey());
+						// can be a restricted extension
+						if (source == null && resolve.getSuperType() instanceof ComplexType) {
+							source = ((ComplexType) resolve.getSuperType()).get(filter.getKey());
+						}
+						Element<?> target = jdbc.getParameters().get("input" + counter++);
+						// inherit the type and properties
+						if (source != null && target != null) {
+							((ModifiableElement<?>) target).setType(source.getType());
+							Value<?>[] properties = source.getProperties();
+							// we need timezone information and potentially date formatting rules etc to determine granularity
+							for (Value<?> value : properties) {
+								if (!value.getProperty().getName().equals("name")) {
+									((ModifiableElement<?>) target).setProperty(value);
+								}
+							}
+							// if we have a list, let's set it
+							if (filter.getValues() != null && filter.getValues().size() >= 2) {
+								target.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
+							}
+						
+						}
+						// @2024-05-30: not ideal, the inputs are named using generic input and counter naming
+						// however for statistics we need to know which field the input operates on so we know which fields to unset to calculate a particular statistic
+						// we use the label property instead of the alias because the alias can have implications for marshalling etc, label should not (unless you are using excel marshalling and the like...)
+						target.setProperty(new ValueImpl<String>(LabelProperty.getInstance(), filter.getKey()));
+					}
+				}
+			}
+			if (seekFields != null) {
+				for (int i = 0; i < seekFields.size(); i++) {
+					Element<?> target = jdbc.getParameters().get("seek" + i);
+					if (target != null) {
+						((ModifiableElement<?>) target).setType(seekFields.get(i).element.getType());
+						for (Value<?> value : seekFields.get(i).element.getProperties()) {
+							if (!value.getProperty().getName().equals("name")) {
+								((ModifiableElement<?>) target).setProperty(value);
+							}
+						}
+					}
+				}
+			}
+			jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+		}
+		return jdbc;
+	}
+	
+	private static void setFilterParameters(ComplexContent parameters, List<Filter> filters) {
+		if (filters != null) {
+			int counter = 0;
+			for (Filter filter : filters) {
+				if (filter.getValues() != null && !filter.getValues().isEmpty() && !skipFilter(filter) && inputOperators.contains(filter.getOperator())) {
+					parameters.set("input" + counter++, filter.getValues().size() == 1 ? filter.getValues().get(0) : filter.getValues());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Instead of selecting everything in the joined tables, we only select the columns that actually exist in the result type (optionally limited to the given fields).
+	 * Returns null if we should select everything, this is also the case if there are fields that are resolved using foreign names.
+	 */
+	private static String buildProjection(ComplexType resolve, List<ComplexType> types, Map<ComplexType, String> names, List<String> fields, List<String> orderBy) {
+		if (!PROJECTION) {
+			return null;
+		}
+		// the fields we order by are always selected, they are needed for distinct selects and to build the continuation token
+		Set<String> ordered = new HashSet<String>();
+		if (orderBy != null) {
+			for (String single : orderBy) {
+				if (single != null && !single.trim().isEmpty()) {
+					String name = single.trim().split("[\\s]+")[0];
+					ordered.add(name.substring(name.lastIndexOf('.') + 1));
+				}
+			}
+		}
+		Map<String, Element<?>> available = new HashMap<String, Element<?>>();
+		for (Element<?> child : TypeUtils.getAllChildren(resolve)) {
+			available.put(child.getName(), child);
+		}
+		if (fields != null && !fields.isEmpty()) {
+			for (String field : fields) {
+				if (!available.containsKey(field)) {
+					throw new IllegalArgumentException("Could not find the field '" + field + "' in type: " + (resolve instanceof DefinedType ? ((DefinedType) resolve).getId() : resolve.getName()));
+				}
+			}
+		}
+		StringBuilder selection = new StringBuilder();
+		Set<String> selected = new HashSet<String>();
+		// hidden types have their fields in the table of the next type
+		List<Element<?>> pending = new ArrayList<Element<?>>();
+		String currentTable = null;
+		String currentAlias = null;
+		for (ComplexType type : types) {
+			for (Element<?> child : type) {
+				pending.add(child);
+			}
+			Boolean hidden = ValueUtils.getValue(HiddenProperty.getInstance(), type.getProperties());
+			if (hidden != null && hidden) {
+				continue;
+			}
+			String typeName = EAIRepositoryUtils.uncamelify(JDBCUtils.getTypeName(type, true));
+			// types that share a table with the previous type are not joined separately
+			if (currentTable == null || !currentTable.equals(typeName)) {
+				currentTable = typeName;
+				currentAlias = names.get(type);
+			}
+			for (Element<?> child : pending) {
+				Element<?> element = available.get(child.getName());
+				// restricted or complex fields are not selected
+				if (element == null || !(element.getType() instanceof SimpleType) || selected.contains(child.getName())) {
+					continue;
+				}
+				Value<Boolean> primaryKey = element.getProperty(PrimaryKeyProperty.getInstance());
+				boolean isPrimaryKey = primaryKey != null && primaryKey.getValue() != null && primaryKey.getValue();
+				boolean isOrdered = ordered.contains(child.getName()) || ordered.contains(EAIRepositoryUtils.uncamelify(child.getName()));
+				if (fields != null && !fields.isEmpty() && !fields.contains(child.getName()) && !isPrimaryKey && !isOrdered) {
+					continue;
+				}
+				// foreign names are injected by the jdbc service itself
+				String foreignName = ValueUtils.getValue(ForeignNameProperty.getInstance(), element.getProperties());
+				if (foreignName != null) {
+					return null;
+				}
+				if (selection.length() > 0) {
+					selection.append(", ");
+				}
+				selection.append(currentAlias).append(".").append(EAIRepositoryUtils.uncamelify(child.getName()));
+				selected.add(child.getName());
+			}
+			pending.clear();
+		}
+		return selection.length() == 0 ? null : selection.toString();
+	}
+	
+	private static Set<String> getTables(List<ComplexType> types, String sql) {
+		Set<String> tables = ResultCache.getTables(sql);
+		for (ComplexType type : types) {
+			tables.add(EAIRepositoryUtils.uncamelify(getName(type)));
+		}
+		return tables;
+	}
+	
+	/**
+	 * Planner estimates are memoized per table: they do not depend on the selected fields, the ordering or the page.
+	 * If there are filters, those are part of the key as well because they change the estimate.
+	 */
+	private static String getEstimateCacheKey(String connectionId, Set<String> tables, String from, String where, ComplexContent parameters) {
+		List<String> sorted = new ArrayList<String>(tables);
+		Collections.sort(sorted);
+		StringBuilder builder = new StringBuilder("estimate:").append(connectionId).append("\n").append(sorted).append("\n").append(from);
+		if (!where.trim().isEmpty()) {
+			builder.append("\n").append(where);
+			for (Element<?> parameter : TypeUtils.getAllChildren(parameters.getType())) {
+				// the seek values only determine the page
+				if (!parameter.getName().startsWith("seek")) {
+					builder.append("\n").append(parameter.getName()).append("=").append(parameters.get(parameter.getName()));
+				}
+			}
+		}
+		return builder.toString();
+	}
+	
+	// the generated sql fixes the shape, the rest of the key consists of the runtime input (paging, parameters...)
+	private static String getResultCacheKey(JDBCService jdbc, ComplexContent input, String...ignore) {
+		List<String> ignored = Arrays.asList(ignore);
+		StringBuilder builder = new StringBuilder(jdbc.getId()).append("\n").append(jdbc.getSql());
+		for (Element<?> child : TypeUtils.getAllChildren(input.getType())) {
+			if (ignored.contains(child.getName())) {
+				continue;
+			}
+			Object value = input.get(child.getName());
+			if (value instanceof ComplexContent) {
+				for (Element<?> parameter : TypeUtils.getAllChildren(((ComplexContent) value).getType())) {
+					builder.append("\n").append(child.getName()).append("/").append(parameter.getName()).append("=").append(((ComplexContent) value).get(parameter.getName()));
+				}
+			}
+			else if (value != null) {
+				builder.append("\n").append(child.getName()).append("=").append(value);
+			}
+		}
+		return builder.toString();
+	}
+	
+	private static boolean supportsGroupingSets(String dataSourceId) throws ServiceException {
+		try {
+			DatabaseFeatures features = DatabaseFeatures.get(dataSourceId);
+			if (features != null) {
+				for (String product : GROUPING_SETS_PRODUCTS) {
+					if (features.isProduct(product)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Each facet counts the rows per value of a field with all the filters applied except the ones on the field itself.
+	 * Where possible we calculate all the facets in a single pass using grouping sets, each facet only counting the rows that match the filters on the other facet fields:
+	 * select a v0, b v1, grouping(a) g0, grouping(b) g1, count(case when <filters on b> then 1 end) c0, count(case when <filters on a> then 1 end) c1 from ... where <other filters> group by grouping sets ((a), (b))
+	 * Otherwise (or when "or" filters make it impossible to split the filters) we run a group by per facet.
+	 */
+	private static List<Facet> calculateFacets(String serviceId, List<String> facets, List<Filter> filters, List<ComplexType> types, Map<ComplexType, String> names, String from, JDBCService jdbc, ComplexContent parameters, String dataSourceId, String connection, String transaction, ExecutionContext executionContext) throws ServiceException {
+		if (filters == null) {
+			filters = new ArrayList<Filter>();
+		}
+		List<String> columns = new ArrayList<String>();
+		List<Facet> result = new ArrayList<Facet>();
+		for (String facet : facets) {
+			columns.add(getQualifiedColumn(facet, types, names));
+			result.add(new Facet(facet));
+		}
+		boolean hasOr = false;
+		Set<String> filterKeys = new HashSet<String>();
+		for (Filter filter : filters) {
+			hasOr |= filter.isOr();
+			if (filter.getKey() != null) {
+				filterKeys.add(filter.getKey());
+			}
+		}
+		if (facets.size() > 1 && !hasOr && supportsGroupingSets(dataSourceId)) {
+			StringBuilder values = new StringBuilder();
+			StringBuilder groupings = new StringBuilder();
+			StringBuilder counts = new StringBuilder();
+			StringBuilder sets = new StringBuilder();
+			for (int i = 0; i < facets.size(); i++) {
+				String separator = i == 0 ? "" : ", ";
+				values.append(separator).append(columns.get(i)).append(" v" + i);
+				groupings.append(", grouping(").append(columns.get(i)).append(") g" + i);
+				sets.append(separator).append("(").append(columns.get(i)).append(")");
+				// only the filters on the other facet fields, the rest is in the where
+				Set<String> excluded = new HashSet<String>(filterKeys);
+				excluded.removeAll(facets);
+				excluded.add(facets.get(i));
+				String condition = buildWhere(filters, types, names, false, excluded);
+				counts.append(", count(").append(condition.trim().isEmpty() ? "*" : "case when" + condition + " then 1 end").append(") c" + i);
+			}
+			String where = buildWhere(filters, types, names, false, facets);
+			String sql = "select " + values + groupings + counts + " from " + from + (where.trim().isEmpty() ? "" : " where" + where) + " group by grouping sets (" + sets + ")";
+			for (ComplexContent row : runFacetQuery(serviceId, sql, jdbc, parameters, connection, transaction, executionContext)) {
+				for (int i = 0; i < facets.size(); i++) {
+					Number grouping = (Number) row.get("g" + i);
+					Number count = (Number) row.get("c" + i);
+					// the rows for this facet are the ones where it is not aggregated
+					if (grouping != null && grouping.intValue() == 0 && count != null && count.longValue() > 0) {
+						result.get(i).getValues().add(new FacetValue(row.get("v" + i), count.longValue()));
+						break;
+					}
+				}
+			}
+		}
+		else {
+			for (int i = 0; i < facets.size(); i++) {
+				String where = buildWhere(filters, types, names, false, Arrays.asList(facets.get(i)));
+				String sql = "select " + columns.get(i) + " v0, count(*) c0 from " + from + (where.trim().isEmpty() ? "" : " where" + where) + " group by " + columns.get(i);
+				for (ComplexContent row : runFacetQuery(serviceId, sql, jdbc, parameters, connection, transaction, executionContext)) {
+					Number count = (Number) row.get("c0");
+					result.get(i).getValues().add(new FacetValue(row.get("v0"), count == null ? 0 : count.longValue()));
+				}
+			}
+		}
+		return result;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<ComplexContent> runFacetQuery(String serviceId, String sql, JDBCService selectService, ComplexContent selectParameters, String connection, String transaction, ExecutionContext executionContext) throws ServiceException {
+		String facetServiceId = serviceId + "Facets";
+		String cacheKey = facetServiceId + "\n" + sql;
+		JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+		if (jdbc == null) {
+			jdbc = new JDBCService(facetServiceId);
+			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+			jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+			jdbc.setInputGenerated(true);
+			jdbc.setOutputGenerated(true);
+			jdbc.setSql(sql);
+			// the inputs are named the same as in the select, copy their typing
+			for (Element<?> element : TypeUtils.getAllChildren(jdbc.getParameters())) {
+				Element<?> original = selectService.getParameters().get(element.getName());
+				if (original != null) {
+					((ModifiableElement<?>) element).setType(original.getType());
+					for (Value<?> value : original.getProperties()) {
+						if (!value.getProperty().getName().equals("name")) {
+							((ModifiableElement<?>) element).setProperty(value);
+						}
+					}
+				}
+			}
+			jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+		}
+		ComplexContent parameters = jdbc.getParameters().newInstance();
+		for (Element<?> element : TypeUtils.getAllChildren(jdbc.getParameters())) {
+			parameters.set(element.getName(), selectParameters.get(element.getName()));
+		}
+		ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+		input.set(JDBCService.CONNECTION, connection);
+		input.set(JDBCService.TRANSACTION, transaction);
+		input.set(JDBCService.PARAMETERS, parameters);
+		ComplexContent output = runRead(jdbc, input, executionContext);
+		List<ComplexContent> rows = new ArrayList<ComplexContent>();
+		List<Object> results = (List<Object>) output.get(JDBCService.RESULTS);
+		if (results != null) {
+			for (Object single : results) {
+				rows.add(single instanceof ComplexContent ? (ComplexContent) single : ComplexContentWrapperFactory.getInstance().getWrapper().wrap(single));
+			}
+		}
+		return rows;
+	}
+	
+	private static String getQualifiedColumn(String key, List<ComplexType> types, Map<ComplexType, String> names) {
+		for (ComplexType type : types) {
+			Element<?> element = type.get(key);
+			if (element == null && type.getSuperType() != null && TypeBaseUtils.getRestricted(type).contains(key)) {
+				element = ((ComplexType) type.getSuperType()).get(key);
+			}
+			if (element != null) {
+				return names.get(type) + "." + EAIRepositoryUtils.uncamelify(key);
+			}
+		}
+		throw new IllegalStateException("Could not find the complex type that contains the field: " + key);
+	}
+	
+	// reads in a transaction that already has a connection open might see its uncommitted writes, those should never be shared with other sessions
+	private static boolean canUseResultCache(JDBCService jdbc, String connection, String transaction, ExecutionContext executionContext) {
+		return !hasOpenTransaction(connection == null ? new RepositoryDataSourceResolver().getDataSourceId(jdbc.getId()) : connection, transaction, executionContext);
+	}
+	
+	// callers are free to modify what they get back, so they always get their own copy of the cached result
+	private static JDBCSelectResult getCachedResult(String key) {
+		JDBCSelectResult cached = (JDBCSelectResult) ResultCache.getInstance().get(key);
+		return cached == null ? null : copyResult(cached);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static JDBCSelectResult copyResult(JDBCSelectResult original) {
+		JDBCSelectResult copy = new JDBCSelectResult((List<Object>) copyValue(original.getResults()), original.getRowCount(), original.getTotalRowCount(), original.isHasNext(), original.getStatistics());
+		copy.setContinuationToken(original.getContinuationToken());
+		if (original.getFacets() != null) {
+			List<Facet> facets = new ArrayList<Facet>();
+			for (Facet facet : original.getFacets()) {
+				Facet facetCopy = new Facet(facet.getName());
+				for (FacetValue value : facet.getValues()) {
+					facetCopy.getValues().add(new FacetValue(copyValue(value.getValue()), value.getAmount()));
+				}
+				facets.add(facetCopy);
+			}
+			copy.setFacets(facets);
+		}
+		return copy;
+	}
+	
+	// deep copies the (mutable) values we get back from a select
+	@SuppressWarnings("unchecked")
+	private static Object copyValue(Object value) {
+		if (value instanceof ComplexContent) {
+			ComplexContent original = (ComplexContent) value;
+			ComplexContent copy = original.getType().newInstance();
+			for (Element<?> child : TypeUtils.getAllChildren(original.getType())) {
+				Object childValue = original.get(child.getName());
+				if (childValue != null) {
+					copy.set(child.getName(), copyValue(childValue));
+				}
+			}
+			return copy;
+		}
+		else if (value instanceof List) {
+			List<Object> copy = new ArrayList<Object>();
+			for (Object single : (List<Object>) value) {
+				copy.add(copyValue(single));
+			}
+			return copy;
+		}
+		else if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		else if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		}
+		return value;
+	}
+	
+	private static void cacheResult(String key, Set<String> tables, long generation, JDBCSelectResult result) {
+		if (tables.isEmpty()) {
+			return;
+		}
+		long weight = 1;
+		if (result.getResults() != null && !result.getResults().isEmpty()) {
+			Object first = result.getResults().get(0);
+			int fields = first instanceof ComplexContent ? TypeUtils.getAllChildren(((ComplexContent) first).getType()).size() : 1;
+			weight += result.getResults().size() * (long) fields;
+		}
+		// the caller keeps the original and can modify it
+		ResultCache.getInstance().put(key, tables, copyResult(result), weight, generation);
+	}
+	
+	// any cached reads on these tables are stale, they are invalidated immediately and again when the transaction ends
+	// otherwise a concurrent read could cache the state from before the commit
+	private void invalidateResultCache(String transaction, Collection<String> tables) {
+		ResultCache.getInstance().invalidate(tables);
+		if (executionContext != null && executionContext.getTransactionContext() != null) {
+			executionContext.getTransactionContext().add(transaction, ResultCache.getInstance().newInvalidator(tables));
+		}
+	}
+	
+	private void invalidateResultCache(String transaction, Iterable<ComplexType> types) {
+		Set<String> tables = new HashSet<String>();
+		for (ComplexType type : types) {
+			tables.add(EAIRepositoryUtils.uncamelify(getName(type)));
+		}
+		invalidateResultCache(transaction, tables);
+	}
+	
+	// whether the given transaction (null being the default transaction of the context) already has a connection open to the data source
+	private static boolean hasOpenTransaction(String connectionId, String transaction, ExecutionContext executionContext) {
+		// if we don't know the connection, we have to assume the worst
+		if (connectionId == null) {
+			return true;
+		}
+		return executionContext != null && executionContext.getTransactionContext() != null && executionContext.getTransactionContext().get(transaction, connectionId) != null;
+	}
+	
+	private static ComplexContent copyInput(JDBCService jdbc, ComplexContent input) {
+		ComplexContent copy = jdbc.getServiceInterface().getInputDefinition().newInstance();
+		for (Element<?> child : TypeUtils.getAllChildren(input.getType())) {
+			copy.set(child.getName(), input.get(child.getName()));
+		}
+		return copy;
+	}
+	
+	private static ComplexContent newCountInput(JDBCService jdbc, ComplexContent input) {
+		ComplexContent countInput = copyInput(jdbc, input);
+		// we only need a minimal page to get to the count, ordering is irrelevant
+		countInput.set(JDBCService.LIMIT, 1);
+		countInput.set(JDBCService.OFFSET, null);
+		countInput.set(JDBCService.ORDER_BY, null);
+		countInput.set(JDBCService.HAS_NEXT, false);
+		countInput.set(JDBCService.LAZY, false);
+		return countInput;
+	}
+	
+	private static Future<ComplexContent> submitCount(final JDBCService jdbc, ComplexContent input, ExecutionContext executionContext) {
+		final ComplexContent countInput = newCountInput(jdbc, input);
+		// a forked execution context makes sure we get our own connection and transaction
+		final ExecutionContext countContext = new ForkedExecutionContext(executionContext, EAIResourceRepository.getInstance());
+		return QueryExecutor.getExecutor().submit(new Callable<ComplexContent>() {
+			@Override
+			public ComplexContent call() throws Exception {
+				return runRead(jdbc, countInput, countContext);
+			}
+		});
+	}
+	
+	/**
+	 * Reads that are not bound to an explicit connection or transaction can be offloaded to a read replica of the data source (if any are configured).
+	 * Writes and reads in a transaction always stay on the primary so they see their own changes, this includes the default transaction once it has a connection open to the primary.
+	 * Note that a lazy read keeps using the replica after we release it, it only stops counting as outstanding.
+	 */
+	private static ComplexContent runRead(final JDBCService jdbc, final ComplexContent input, final ExecutionContext executionContext) throws ServiceException {
+		flushWrites((String) input.get(JDBCService.CONNECTION), (String) input.get(JDBCService.TRANSACTION), jdbc.getId(), ResultCache.getTables(jdbc.getSql()), executionContext);
+		return ReadReplicaRouter.getInstance().read(jdbc.getId(), (String) input.get(JDBCService.CONNECTION), (String) input.get(JDBCService.TRANSACTION), new ReadReplicaRouter.Read<ComplexContent>() {
+			@Override
+			public boolean isOpen(String dataSourceId) {
+				return hasOpenTransaction(dataSourceId, null, executionContext);
+			}
+			@Override
+			public ComplexContent run(String connectionId) throws ServiceException {
+				if (connectionId == null || connectionId.equals(input.get(JDBCService.CONNECTION))) {
+					return new ServiceRuntime(jdbc, executionContext).run(input);
+				}
+				// the input belongs to the caller, they might reuse it
+				ComplexContent routed = copyInput(jdbc, input);
+				routed.set(JDBCService.CONNECTION, connectionId);
+				return new ServiceRuntime(jdbc, executionContext).run(routed);
+			}
+		});
+	}
+	
+	private static <T> T await(Future<T> future) throws ServiceException {
+		boolean success = false;
+		try {
+			T result = future.get();
+			success = true;
+			return result;
+		}
+		catch (InterruptedException e) {
+			// restore the flag so the caller knows it was interrupted
+			Thread.currentThread().interrupt();
+			throw new ServiceException(e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof ServiceException) {
+				throw (ServiceException) e.getCause();
+			}
+			throw new ServiceException(e.getCause());
+		}
+		finally {
+			// whatever went wrong, we don't leave the work running in the background
+			if (!success) {
+				future.cancel(true);
+			}
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<Object> toLazyList(Object results, String transaction, ExecutionContext executionContext) {
+		if (results == null || results instanceof List) {
+			return (List<Object>) results;
+		}
+		Iterable<Object> iterable;
+		if (results instanceof Iterable) {
+			iterable = (Iterable<Object>) results;
+		}
+		else {
+			CollectionHandlerProvider handler = CollectionHandlerFactory.getInstance().getHandler().getHandler(results.getClass());
+			if (handler == null) {
+				throw new IllegalArgumentException("Can not stream the lazy results of type: " + results.getClass());
+			}
+			iterable = handler.getAsIterable(results);
+		}
+		// the iterable can be a view, we close the original result
+		LazyList<Object> list = new LazyList<Object>(iterable, results);
+		// make sure we don't hold on to the statement & connection longer than the transaction (this includes the default transaction)
+		if (executionContext != null && executionContext.getTransactionContext() != null) {
+			executionContext.getTransactionContext().add(transaction, list.asTransactionable());
+		}
+		return list;
+	}
+	
+	private static class SeekField {
+		private Element<?> element;
+		private String column;
+		private boolean descending;
+		// whether or not it was added to the requested order by
+		private boolean added;
+		// nullable fields can not be part of a row value comparison
+		private boolean nullable;
+		public SeekField(Element<?> element, String column, boolean descending) {
+			this.element = element;
+			this.column = column;
+			this.descending = descending;
+		}
+	}
+	
+	private static List<SeekField> getSeekFields(List<String> orderBy, List<ComplexType> types, Map<ComplexType, String> names) {
+		List<SeekField> seekFields = new ArrayList<SeekField>();
+		Boolean descending = null;
+		if (orderBy != null) {
+			for (String single : orderBy) {
+				if (single == null || single.trim().isEmpty()) {
+					continue;
+				}
+				// we only support "field" or "field asc|desc", anything more complex (nulls first, expressions...) can not be captured in a row value comparison
+				String[] parts = single.trim().split("[\\s]+");
+				if (parts.length > 2 || (parts.length == 2 && !parts[1].equalsIgnoreCase("asc") && !parts[1].equalsIgnoreCase("desc"))) {
+					return null;
+				}
+				boolean fieldDescending = parts.length == 2 && parts[1].equalsIgnoreCase("desc");
+				// a row value comparison only works if all the fields are sorted in the same direction
+				if (descending != null && descending != fieldDescending) {
+					return null;
+				}
+				descending = fieldDescending;
+				SeekField seekField = getSeekField(parts[0], types, names, fieldDescending);
+				if (seekField == null) {
+					return null;
+				}
+				seekFields.add(seekField);
+			}
+		}
+		// the primary key of the root table makes the order unique
+		Element<?> primaryKey = null;
+		for (Element<?> child : JDBCUtils.getFieldsInTable(types.get(0))) {
+			Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+			if (property != null && property.getValue()) {
+				primaryKey = child;
+				break;
+			}
+		}
+		if (primaryKey == null || !(primaryKey.getType() instanceof Marshallable) || !(primaryKey.getType() instanceof Unmarshallable)) {
+			return null;
+		}
+		boolean hasPrimaryKey = false;
+		for (SeekField seekField : seekFields) {
+			if (seekField.element.getName().equals(primaryKey.getName())) {
+				hasPrimaryKey = true;
+			}
+		}
+		if (!hasPrimaryKey) {
+			SeekField seekField = new SeekField(primaryKey, names.get(types.get(0)) + "." + EAIRepositoryUtils.uncamelify(primaryKey.getName()), descending != null && descending);
+			seekField.added = true;
+			seekFields.add(seekField);
+		}
+		return seekFields;
+	}
+	
+	private static SeekField getSeekField(String name, List<ComplexType> types, Map<ComplexType, String> names, boolean descending) {
+		for (ComplexType type : types) {
+			for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+				if (child.getName().equals(name) || EAIRepositoryUtils.uncamelify(child.getName()).equals(name)) {
+					// we need to be able to put the value in a continuation token
+					if (!(child.getType() instanceof Marshallable) || !(child.getType() instanceof Unmarshallable)) {
+						return null;
+					}
+					SeekField seekField = new SeekField(child, names.get(type) + "." + EAIRepositoryUtils.uncamelify(child.getName()), descending);
+					Integer minOccurs = ValueUtils.getValue(MinOccursProperty.getInstance(), child.getProperties());
+					Value<Boolean> primaryKey = child.getProperty(PrimaryKeyProperty.getInstance());
+					seekField.nullable = minOccurs != null && minOccurs == 0 && (primaryKey == null || !primaryKey.getValue());
+					return seekField;
+				}
+			}
+		}
+		return null;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static String encodeContinuationToken(Object last, List<SeekField> seekFields) {
+		if (!(last instanceof ComplexContent)) {
+			last = ComplexContentWrapperFactory.getInstance().getWrapper().wrap(last);
+		}
+		if (last == null) {
+			return null;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (SeekField seekField : seekFields) {
+			Object value = ((ComplexContent) last).get(seekField.element.getName());
+			// null values are encoded explicitly as the name without a value
+			if (value == null) {
+				builder.append(seekField.element.getName()).append("\n");
+				continue;
+			}
+			String marshalled = ((Marshallable) seekField.element.getType()).marshal(value, seekField.element.getProperties());
+			try {
+				builder.append(seekField.element.getName()).append("=").append(URLEncoder.encode(marshalled, "UTF-8")).append("\n");
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(builder.toString().getBytes(Charset.forName("UTF-8")));
+	}
+	
+	/**
+	 * Builds the predicate that selects everything after the given values in the order of the seek fields.
+	 * If all values are known to be filled in, we can use a single row value comparison which databases can map onto an index.
+	 * Otherwise we spell out the comparison field by field, taking into account where the database sorts the null values.
+	 */
+	private static String buildSeekPredicate(List<SeekField> seekFields, List<Object> seekValues, DatabaseFeatures features) {
+		boolean rowValue = true;
+		for (int i = 0; i < seekFields.size(); i++) {
+			if (seekFields.get(i).nullable || seekValues.get(i) == null) {
+				rowValue = false;
+				break;
+			}
+		}
+		if (rowValue) {
+			String seek = "(";
+			String seekParameters = "(";
+			for (int i = 0; i < seekFields.size(); i++) {
+				if (i > 0) {
+					seek += ", ";
+					seekParameters += ", ";
+				}
+				seek += seekFields.get(i).column;
+				seekParameters += ":seek" + i;
+			}
+			return seek + ") " + (seekFields.get(0).descending ? "<" : ">") + " " + seekParameters + ")";
+		}
+		List<String> alternatives = new ArrayList<String>();
+		String equal = "";
+		for (int i = 0; i < seekFields.size(); i++) {
+			SeekField seekField = seekFields.get(i);
+			boolean nullLast = features == null ? !seekField.descending : features.isNullLast(seekField.descending);
+			String after;
+			if (seekValues.get(i) == null) {
+				// if the nulls come last, nothing comes after a null in this field
+				after = nullLast ? null : seekField.column + " is not null";
+			}
+			else {
+				after = seekField.column + (seekField.descending ? " < " : " > ") + ":seek" + i;
+				if (seekField.nullable && nullLast) {
+					after = "(" + after + " or " + seekField.column + " is null)";
+				}
+			}
+			if (after != null) {
+				alternatives.add("(" + equal + after + ")");
+			}
+			equal += (seekValues.get(i) == null ? seekField.column + " is null" : seekField.column + " = :seek" + i) + " and ";
+		}
+		if (alternatives.isEmpty()) {
+			return "1 = 0";
+		}
+		StringBuilder builder = new StringBuilder("(");
+		for (int i = 0; i < alternatives.size(); i++) {
+			if (i > 0) {
+				builder.append(" or ");
+			}
+			builder.append(alternatives.get(i));
+		}
+		return builder.append(")").toString();
+	}
+	
+	private static List<Object> decodeContinuationToken(String token, List<SeekField> seekFields) {
+		String decoded;
+		try {
+			decoded = new String(Base64.getUrlDecoder().decode(token), Charset.forName("UTF-8"));
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token", e);
+		}
+		String[] parts = decoded.split("\n");
+		if (parts.length != seekFields.size()) {
+			throw new IllegalArgumentException("The continuation token does not match the requested order by");
+		}
+		List<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < parts.length; i++) {
+			Element<?> element = seekFields.get(i).element;
+			int index = parts[i].indexOf('=');
+			if (index < 0 && parts[i].equals(element.getName())) {
+				values.add(null);
+				continue;
+			}
+			if (index <= 0 || !parts[i].substring(0, index).equals(element.getName()) || !(element.getType() instanceof Unmarshallable)) {
+				throw new IllegalArgumentException("The continuation token does not match the requested order by");
+			}
+			try {
+				values.add(((Unmarshallable<?>) element.getType()).unmarshal(URLDecoder.decode(parts[i].substring(index + 1), "UTF-8"), element.getProperties()));
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return values;
+	}
+
 	private static String buildWhere(List<Filter> filters, List<ComplexType> types, Map<ComplexType, String> names, boolean includeNullSupport) {
+		return buildWhere(filters, types, names, includeNullSupport, null);
+	}
+	
+	// the excluded keys are not added to the where, the input naming stays the same however so the same parameters can be used
+	// note that excluding filters that are part of an "or" can change the meaning of the where
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static String buildWhere(List<Filter> filters, List<ComplexType> types, Map<ComplexType, String> names, boolean includeNullSupport, Collection<String> excludedKeys) {
 		String where = "";
-		int counter = 0;
+		// the input names are determined by the position of the filter in the complete list, this must match the binding of the parameters
+		int [] inputIndexes = new int[filters.size()];
+		int inputCounter = 0;
+		for (int i = 0; i < filters.size(); i++) {
+			inputIndexes[i] = inputCounter;
+			if (hasInput(filters.get(i))) {
+				inputCounter++;
+			}
+		}
 		boolean openOr = false;
 		for (int i = 0; i < filters.size(); i++) {
 			Filter filter = filters.get(i);
+			int counter = inputIndexes[i];
 			if (filter.getKey() == null) {
 				continue;
 			}
 			
+			if (excludedKeys != null && excludedKeys.contains(filter.getKey())) {
+				continue;
+			}
+			
 			if (skipFilter(filter)) {
 				continue;
 			}
@@ -1213,18 +2493,18 @@ public class Services {
 			if (filter.getValues() != null && !filter.getValues().isEmpty() && inputOperators.contains(operator)) {
 				if (filter.getValues().size() == 1) {
 					if (filter.isCaseInsensitive()) {
-						where += " lower(:input" + counter++ + ")";
+						where += " lower(:input" + counter + ")";
 					}
 					else {
-						where += " :input" + counter++;
+						where += " :input" + counter;
 					}
 				}
 				else {
 					if ("<>".equals(operator.trim())) {
-						where += " all(:input" + counter++ + ")";
+						where += " all(:input" + counter + ")";
 					}
 					else {
-						where += " any(:input" + counter++ + ")";
+						where += " any(:input" + counter + ")";
 					}
 				}
 			}
@@ -1306,8 +2586,14 @@ public class Services {
 			input.set("language", language);
 		}
 		
+		// we don't know what the statement depends on
+		flushWrites(connection, transaction, jdbc.getId(), null, executionContext);
 		ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
 		runtime.run(input);
+		
+		if (sql != null) {
+			invalidateResultCache(transaction, ResultCache.getTables(sql));
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -1323,7 +2609,8 @@ public class Services {
 			@WebParam(name = "sql") String sql, 
 			@WebParam(name = "properties") List<KeyValuePair> properties, 
 			@WebParam(name = "language") String language, 
-			@WebParam(name = "typeAsHint") Boolean typeIdAsHint) throws ServiceException {
+			@WebParam(name = "typeAsHint") Boolean typeIdAsHint,
+			@WebParam(name = "cache") Boolean cache) throws ServiceException {
 		String serviceId = typeId + ":generated.selectDynamic";
 		JDBCService jdbc = new JDBCService(serviceId);
 		jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
@@ -1420,16 +2707,30 @@ public class Services {
 			input.set("language", language);
 		}
 		
-		ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
-		ComplexContent output = runtime.run(input);
+		// we can only invalidate dynamic sql if we can determine the tables it reads from
+		Set<String> tables = cache != null && cache && sql != null && canUseResultCache(jdbc, connection, transaction, executionContext) ? ResultCache.getTables(sql) : null;
+		String resultCacheKey = tables != null && !tables.isEmpty() ? getResultCacheKey(jdbc, input) : null;
+		long generation = resultCacheKey == null ? 0 : ResultCache.getInstance().getGeneration(tables);
+		if (resultCacheKey != null) {
+			JDBCSelectResult cached = getCachedResult(resultCacheKey);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		
+		ComplexContent output = runRead(jdbc, input, executionContext);
 		
-		return new JDBCSelectResult(
+		JDBCSelectResult result = new JDBCSelectResult(
 			(List<Object>) output.get(JDBCService.RESULTS), 
 			(Long) output.get(JDBCService.ROW_COUNT), 
 			(Long) output.get(JDBCService.TOTAL_ROW_COUNT), 
 			(Boolean) output.get(JDBCService.HAS_NEXT),
 			(List<Statistic>) output.get(JDBCService.STATISTICS)
 		);
+		if (resultCacheKey != null) {
+			cacheResult(resultCacheKey, tables, generation, result);
+		}
+		return result;
 	}
 	
 	public static class JDBCSelectResult {
@@ -1437,6 +2738,8 @@ public class Services {
 		private Long rowCount, totalRowCount;
 		private Boolean hasNext;
 		private List<Statistic> statistics;
+		private String continuationToken;
+		private List<Facet> facets;
 		public JDBCSelectResult() {
 			// auto
 		}
@@ -1474,54 +2777,427 @@ public class Services {
 		public List<Statistic> getStatistics() {
 			return statistics;
 		}
-		public void setStatistics(List<Statistic> statistics) {
-			this.statistics = statistics;
+		public void setStatistics(List<Statistic> statistics) {
+			this.statistics = statistics;
+		}
+		// the token to pass in to get the next window when using keyset pagination
+		public String getContinuationToken() {
+			return continuationToken;
+		}
+		public void setContinuationToken(String continuationToken) {
+			this.continuationToken = continuationToken;
+		}
+		public List<Facet> getFacets() {
+			return facets;
+		}
+		public void setFacets(List<Facet> facets) {
+			this.facets = facets;
+		}
+	}
+	
+	// when grouping we wrap the types potentially in other types due to restrictions
+	// we need those wrapped types specifically for generating update statements and the likes
+	// however, our instances are not of that type but of the supertype
+	// to avoid conversion issues, we unwrap it again when defining the input
+	private ComplexType unwrap(ComplexType type) {
+		Boolean value = ValueUtils.getValue(HiddenProperty.getInstance(), type.getProperties());
+		return value != null && value && type.getSuperType() != null ? (ComplexType) type.getSuperType() : type;
+	}
+	// in the future we might add a "skip types", this for example for managed crud providers who have to currently do a full update afterwards (e.g. node), this currently results in two updates
+	@ServiceDescription(description = "Update any number of correctly annotated objects in the given connection. They will be grouped by type and batch updated. If only changes should be written, the instances are compared to the current state in the database and only the changed fields are updated.")
+	public void update(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker, @WebParam(name = "language") String language, @WebParam(name = "changesOnly") Boolean changesOnly) throws ServiceException {
+		Map<ComplexType, List<ComplexContent>> group = group(instances);
+		invalidateResultCache(transaction, group.keySet());
+		// the changes are determined against the database so we can't buffer them
+		String statement = changesOnly != null && changesOnly ? null : "update\n" + changeTracker + "\n" + language;
+		write(group, connection, transaction, ":generated.update", statement, new GroupWriter() {
+			@Override
+			public void write(ComplexType type, List<ComplexContent> contents, ExecutionContext executionContext) throws ServiceException {
+				if (changesOnly != null && changesOnly) {
+					Map<Set<String>, List<ComplexContent>> changes = groupByChanges(type, contents, connection, transaction, executionContext);
+					for (Set<String> fields : changes.keySet()) {
+						update(type, changes.get(fields), fields, connection, transaction, changeTracker, language, executionContext);
+					}
+				}
+				else {
+					update(type, contents, null, connection, transaction, changeTracker, language, executionContext);
+				}
+			}
+		});
+	}
+	
+	private void update(ComplexType type, List<ComplexContent> contents, Collection<String> fields, String connection, String transaction, String changeTracker, String language, ExecutionContext executionContext) throws ServiceException {
+		String id = type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous";
+		id += ":generated.update";
+		// @2022-11-15 in some cases (e.g. an extension with only id duplicate or an update service with a lot of blacklisting)
+		// we might end up with something that actually does not have any fields to update
+		// in such a scenario, we don't want to throw an error, we just want to skip the update
+		String generateUpdate = generateUpdate(type, fields);
+		if (generateUpdate == null) {
+			return;
+		}
+		String cacheKey = id + "\n" + changeTracker + "\n" + generateUpdate;
+		JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+		if (jdbc == null) {
+			jdbc = new JDBCService(id);
+			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+			jdbc.setChangeTracker(toChangeTracker(changeTracker));
+			jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+			jdbc.setInputGenerated(false);
+			jdbc.setOutputGenerated(false);
+			jdbc.setParameters(unwrap(type));
+			jdbc.setSql(generateUpdate);
+			jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+		}
+		ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+		input.set(JDBCService.CONNECTION, connection);
+		input.set(JDBCService.TRANSACTION, transaction);
+		input.set(JDBCService.PARAMETERS, contents);
+		
+		if (language != null && jdbc.getServiceInterface().getInputDefinition().get("language") != null) {
+			input.set("language", language);
+		}
+		
+		ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
+		runtime.run(input);
+	}
+	
+	/**
+	 * Groups the instances by the exact set of fields that differ from the current state in the database, unchanged instances are dropped.
+	 * Instances that can not be found in the database are grouped under a null key, they get a full update.
+	 */
+	private Map<Set<String>, List<ComplexContent>> groupByChanges(ComplexType type, List<ComplexContent> contents, String connection, String transaction, ExecutionContext executionContext) throws ServiceException {
+		Element<?> primaryKey = null;
+		List<Element<?>> columns = new ArrayList<Element<?>>();
+		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+			Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+			if (property != null && property.getValue()) {
+				primaryKey = child;
+				continue;
+			}
+			Value<Boolean> generatedProperty = child.getProperty(GeneratedProperty.getInstance());
+			if (generatedProperty != null && generatedProperty.getValue() != null && generatedProperty.getValue()) {
+				continue;
+			}
+			columns.add(child);
+		}
+		if (primaryKey == null) {
+			throw new IllegalArgumentException("Could not determine primary key field for type: " + (type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous"));
+		}
+		Map<Object, ComplexContent> snapshots = getSnapshots(type, primaryKey, columns, contents, connection, transaction, executionContext);
+		Map<Set<String>, List<ComplexContent>> grouped = new LinkedHashMap<Set<String>, List<ComplexContent>>();
+		for (ComplexContent content : contents) {
+			ComplexContent snapshot = snapshots.get(content.get(primaryKey.getName()));
+			Set<String> changed = null;
+			if (snapshot != null) {
+				changed = new TreeSet<String>();
+				for (Element<?> column : columns) {
+					if (!isSame(content.get(column.getName()), snapshot.get(column.getName()))) {
+						changed.add(column.getName());
+					}
+				}
+				if (changed.isEmpty()) {
+					continue;
+				}
+			}
+			if (!grouped.containsKey(changed)) {
+				grouped.put(changed, new ArrayList<ComplexContent>());
+			}
+			grouped.get(changed).add(content);
+		}
+		return grouped;
+	}
+	
+	// loads the current state of the columns in as few round trips as possible
+	private Map<Object, ComplexContent> getSnapshots(ComplexType type, Element<?> primaryKey, List<Element<?>> columns, List<ComplexContent> contents, String connection, String transaction, ExecutionContext executionContext) throws ServiceException {
+		List<Object> ids = new ArrayList<Object>(new LinkedHashSet<Object>(getValues(contents, primaryKey.getName())));
+		ids.remove(null);
+		String serviceId = (type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous") + ":generated.updateSnapshot";
+		SQLDialect dialect = getDialect(connection, serviceId);
+		boolean useArray = dialect != null && dialect.hasArraySupport(primaryKey);
+		String keyName = EAIRepositoryUtils.uncamelify(primaryKey.getName());
+		StringBuilder selection = new StringBuilder(keyName);
+		for (Element<?> column : columns) {
+			selection.append(", ").append(EAIRepositoryUtils.uncamelify(column.getName()));
+		}
+		Map<Object, ComplexContent> snapshots = new HashMap<Object, ComplexContent>();
+		for (List<Object> chunk : chunk(ids, useArray ? MAX_ARRAY_SIZE : MAX_PARAMETERS, !useArray)) {
+			String sql = "select " + selection + " from ~" + EAIRepositoryUtils.uncamelify(getName(type)) + " where " + keyName + (useArray ? " = any(:ids)" : " in (" + getParameterList("id", chunk.size()) + ")");
+			String cacheKey = serviceId + "\n" + sql;
+			JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+			if (jdbc == null) {
+				jdbc = new JDBCService(serviceId);
+				jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+				jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+				jdbc.setInputGenerated(true);
+				jdbc.setOutputGenerated(false);
+				jdbc.setResults(unwrap(type));
+				jdbc.setSql(sql);
+				for (Element<?> element : TypeUtils.getAllChildren(jdbc.getParameters())) {
+					((ModifiableElement<?>) element).setType(primaryKey.getType());
+					if (useArray) {
+						element.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
+					}
+				}
+				jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+			}
+			ComplexContent parameters = jdbc.getParameters().newInstance();
+			if (useArray) {
+				parameters.set("ids", chunk);
+			}
+			else {
+				for (int i = 0; i < chunk.size(); i++) {
+					parameters.set("id" + i, chunk.get(i));
+				}
+			}
+			ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+			input.set(JDBCService.CONNECTION, connection);
+			input.set(JDBCService.TRANSACTION, transaction);
+			input.set(JDBCService.PARAMETERS, parameters);
+			ComplexContent output = new ServiceRuntime(jdbc, executionContext).run(input);
+			@SuppressWarnings("unchecked")
+			List<Object> results = (List<Object>) output.get(JDBCService.RESULTS);
+			if (results != null) {
+				for (Object single : results) {
+					ComplexContent content = single instanceof ComplexContent ? (ComplexContent) single : ComplexContentWrapperFactory.getInstance().getWrapper().wrap(single);
+					snapshots.put(content.get(primaryKey.getName()), content);
+				}
+			}
+		}
+		return snapshots;
+	}
+	
+	private static List<Object> getValues(List<ComplexContent> contents, String name) {
+		List<Object> values = new ArrayList<Object>();
+		for (ComplexContent content : contents) {
+			values.add(content.get(name));
+		}
+		return values;
+	}
+	
+	private static boolean isSame(Object value, Object other) {
+		if (value == null || other == null) {
+			return value == other;
+		}
+		else if (value instanceof byte[] && other instanceof byte[]) {
+			return Arrays.equals((byte[]) value, (byte[]) other);
+		}
+		// the database may return a subclass (e.g. timestamp) which is not equal to the original date
+		else if (value instanceof Date && other instanceof Date) {
+			return ((Date) value).getTime() == ((Date) other).getTime();
+		}
+		// the scale might differ
+		else if (value instanceof BigDecimal && other instanceof BigDecimal) {
+			return ((BigDecimal) value).compareTo((BigDecimal) other) == 0;
+		}
+		return value.equals(other);
+	}
+	
+	private interface GroupWriter {
+		public void write(ComplexType type, List<ComplexContent> contents, ExecutionContext executionContext) throws ServiceException;
+	}
+	
+	/**
+	 * Writes the grouped instances in order. If all the groups end up in autocommitted data sources, the groups that are unrelated to one another are written in parallel, each on their own connection.
+	 * Inside a transaction there is only one connection so we can't parallelize.
+	 */
+	private void write(final Map<ComplexType, List<ComplexContent>> group, String connection, String transaction, String suffix, String statement, final GroupWriter writer) throws ServiceException {
+		if (COALESCE_WRITES && transaction != null && executionContext != null) {
+			buffer(group, connection, transaction, suffix, statement, writer);
+			return;
+		}
+		List<List<ComplexType>> independent = PARALLEL_WRITES && group.size() > 1 && executionContext != null && QueryExecutor.isEnabled() && isAutoCommit(group.keySet(), connection, suffix)
+			? getIndependentGroups(group.keySet())
+			: null;
+		if (independent == null || independent.size() <= 1) {
+			for (ComplexType type : group.keySet()) {
+				writer.write(type, group.get(type), executionContext);
+			}
+			return;
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (final List<ComplexType> types : independent) {
+			// a forked execution context keeps the security and service context of the caller but has its own transactions, so we don't share connections between threads
+			final ExecutionContext writeContext = new ForkedExecutionContext(executionContext, EAIResourceRepository.getInstance());
+			futures.add(QueryExecutor.getExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (ComplexType type : types) {
+						writer.write(type, group.get(type), writeContext);
+					}
+					return null;
+				}
+			}));
+		}
+		// we wait for everything to finish before we report the first exception
+		ServiceException exception = null;
+		for (Future<Void> future : futures) {
+			try {
+				await(future);
+			}
+			catch (ServiceException e) {
+				if (exception == null) {
+					exception = e;
+				}
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Adds the writes to the buffer of the transaction if possible, the statement determines which writes can be combined.
+	 * Writes that can not be buffered (e.g. because they need generated keys) are done immediately, after everything that is pending has been flushed.
+	 * The buffer gets a copy of the instances, the caller is free to change them once we return.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buffer(Map<ComplexType, List<ComplexContent>> group, String connection, String transaction, String suffix, String statement, final GroupWriter writer) throws ServiceException {
+		final ExecutionContext executionContext = this.executionContext;
+		for (final ComplexType type : group.keySet()) {
+			List<ComplexContent> contents = group.get(type);
+			String connectionId = getConnectionId(type, connection, suffix);
+			WriteBuffer buffer = connectionId == null ? null : getWriteBuffer(connectionId, transaction, executionContext);
+			if (buffer != null && statement != null && !hasMissingKeys(type, contents)) {
+				buffer.add(EAIRepositoryUtils.uncamelify(getName(type)), suffix + "\n" + statement, (List<ComplexContent>) copyValue(contents), new WriteBuffer.Flusher() {
+					@Override
+					public void flush(List<ComplexContent> contents) throws ServiceException {
+						writer.write(type, contents, executionContext);
+					}
+				});
+			}
+			else {
+				if (buffer != null) {
+					buffer.flush();
+				}
+				writer.write(type, contents, executionContext);
+			}
+		}
+	}
+	
+	// if the primary key has to be generated, we need the result immediately
+	private static boolean hasMissingKeys(ComplexType type, List<ComplexContent> contents) {
+		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+			Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+			if (property != null && property.getValue()) {
+				for (ComplexContent content : contents) {
+					if (content.get(child.getName()) == null) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	private static String getConnectionId(ComplexType type, String connection, String suffix) {
+		return connection == null ? new RepositoryDataSourceResolver().getDataSourceId((type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous") + suffix) : connection;
+	}
+	
+	/**
+	 * The buffer takes the place of the connection in the transaction, if the connection was already used in this transaction we can't buffer.
+	 */
+	private static WriteBuffer getWriteBuffer(String connectionId, String transaction, ExecutionContext executionContext) throws ServiceException {
+		Transactionable transactionable = executionContext.getTransactionContext().get(transaction, connectionId);
+		if (transactionable instanceof WriteBuffer) {
+			return (WriteBuffer) transactionable;
+		}
+		else if (transactionable != null) {
+			return null;
+		}
+		Artifact artifact = EAIResourceRepository.getInstance().resolve(connectionId);
+		if (!(artifact instanceof DataSourceWithDialectProviderArtifact) || ((DataSourceWithDialectProviderArtifact) artifact).isAutoCommit()) {
+			return null;
+		}
+		try {
+			WriteBuffer buffer = new WriteBuffer(connectionId, ((DataSourceWithDialectProviderArtifact) artifact).getDataSource().getConnection());
+			executionContext.getTransactionContext().add(transaction, buffer);
+			return buffer;
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Reads (and writes we don't buffer) within a transaction must see the buffered writes, so we flush them first.
+	 * If no tables are given, we flush regardless of the tables.
+	 */
+	private static void flushWrites(String connection, String transaction, String serviceId, Collection<String> tables, ExecutionContext executionContext) throws ServiceException {
+		if (!COALESCE_WRITES || transaction == null || executionContext == null) {
+			return;
+		}
+		String connectionId = connection == null ? new RepositoryDataSourceResolver().getDataSourceId(serviceId) : connection;
+		Transactionable transactionable = connectionId == null ? null : executionContext.getTransactionContext().get(transaction, connectionId);
+		if (transactionable instanceof WriteBuffer) {
+			((WriteBuffer) transactionable).flush(tables);
+		}
+	}
+	
+	private static boolean isAutoCommit(Collection<ComplexType> types, String connection, String suffix) {
+		for (ComplexType type : types) {
+			String connectionId = getConnectionId(type, connection, suffix);
+			Artifact artifact = connectionId == null ? null : EAIResourceRepository.getInstance().resolve(connectionId);
+			if (!(artifact instanceof DataSourceWithDialectProviderArtifact) || !((DataSourceWithDialectProviderArtifact) artifact).isAutoCommit()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Splits the types into sets that can be written independently, each set retains the original order.
+	 * Types are related if they are part of the same extension chain (so they share a primary key) or if one has a foreign key to the other.
+	 */
+	private static List<List<ComplexType>> getIndependentGroups(Collection<ComplexType> types) {
+		List<ComplexType> list = new ArrayList<ComplexType>(types);
+		int [] parents = new int[list.size()];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+		for (int i = 0; i < list.size(); i++) {
+			for (int j = i + 1; j < list.size(); j++) {
+				if (isRelated(list.get(i), list.get(j)) || isRelated(list.get(j), list.get(i))) {
+					parents[getRoot(parents, j)] = getRoot(parents, i);
+				}
+			}
+		}
+		Map<Integer, List<ComplexType>> groups = new LinkedHashMap<Integer, List<ComplexType>>();
+		for (int i = 0; i < list.size(); i++) {
+			int root = getRoot(parents, i);
+			if (!groups.containsKey(root)) {
+				groups.put(root, new ArrayList<ComplexType>());
+			}
+			groups.get(root).add(list.get(i));
 		}
+		return new ArrayList<List<ComplexType>>(groups.values());
 	}
 	
-	// when grouping we wrap the types potentially in other types due to restrictions
-	// we need those wrapped types specifically for generating update statements and the likes
-	// however, our instances are not of that type but of the supertype
-	// to avoid conversion issues, we unwrap it again when defining the input
-	private ComplexType unwrap(ComplexType type) {
-		Boolean value = ValueUtils.getValue(HiddenProperty.getInstance(), type.getProperties());
-		return value != null && value && type.getSuperType() != null ? (ComplexType) type.getSuperType() : type;
+	private static int getRoot(int [] parents, int index) {
+		while (parents[index] != index) {
+			index = parents[index];
+		}
+		return index;
 	}
-	// in the future we might add a "skip types", this for example for managed crud providers who have to currently do a full update afterwards (e.g. node), this currently results in two updates
-	@ServiceDescription(description = "Update any number of correctly annotated objects in the given connection. They will be grouped by type and batch updated.")
-	public void update(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker, @WebParam(name = "language") String language) throws ServiceException {
-		Map<ComplexType, List<ComplexContent>> group = group(instances);
-		for (ComplexType type : group.keySet()) {
-			List<ComplexContent> contents = group.get(type);
-			String id = type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous";
-			id += ":generated.update";
-			JDBCService jdbc = new JDBCService(id);
-			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
-			jdbc.setChangeTracker(toChangeTracker(changeTracker));
-			jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
-			jdbc.setInputGenerated(false);
-			jdbc.setOutputGenerated(false);
-			jdbc.setParameters(unwrap(type));
-			// @2022-11-15 in some cases (e.g. an extension with only id duplicate or an update service with a lot of blacklisting)
-			// we might end up with something that actually does not have any fields to update
-			// in such a scenario, we don't want to throw an error, we just want to skip the update
-			String generateUpdate = generateUpdate(type);
-			if (generateUpdate == null) {
-				continue;
-			}
-			jdbc.setSql(generateUpdate);
-			ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
-			input.set(JDBCService.CONNECTION, connection);
-			input.set(JDBCService.TRANSACTION, transaction);
-			input.set(JDBCService.PARAMETERS, contents);
-			
-			if (language != null && jdbc.getServiceInterface().getInputDefinition().get("language") != null) {
-				input.set("language", language);
+	
+	private static boolean isRelated(ComplexType type, ComplexType other) {
+		List<ComplexType> otherTypes = JDBCUtils.getAllTypes(other);
+		if (JDBCUtils.getAllTypes(type).contains(other) || otherTypes.contains(type)) {
+			return true;
+		}
+		// the foreign key is formatted as <typeId>:<field>
+		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+			String foreignKey = ValueUtils.getValue(ForeignKeyProperty.getInstance(), child.getProperties());
+			if (foreignKey != null) {
+				String referenced = foreignKey.split(":")[0];
+				for (ComplexType otherType : otherTypes) {
+					if (otherType instanceof DefinedType && referenced.equals(((DefinedType) otherType).getId())) {
+						return true;
+					}
+				}
 			}
-			
-			ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
-			runtime.run(input);
 		}
+		return false;
 	}
 	
 	private ChangeTracker toChangeTracker(String id) {
@@ -1539,117 +3215,594 @@ public class Services {
 	
 	@ServiceDescription(comment = "Insert {instances|objects} into {connection|a database}", description = "Insert any number of correctly annotated objects into the given connection. They will be grouped by type and batch inserted.")
 	public void insert(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker, @WebParam(name = "affixes") List<AffixInput> affixes) throws ServiceException {
-		insertOrUpdate(connection, transaction, instances, changeTracker, false, affixes);
+		insertOrUpdate(connection, transaction, instances, changeTracker, false, affixes, false);
 	}
 	
-	@ServiceDescription(description = "Merge any number of correctly annotated objects into the given connection. They will be grouped by type and batch merged.")
-	public void merge(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker, @WebParam(name = "affixes") List<AffixInput> affixes) throws ServiceException {
-		insertOrUpdate(connection, transaction, instances, changeTracker, true, affixes);
+	@ServiceDescription(description = "Merge any number of correctly annotated objects into the given connection. They will be grouped by type and batch merged. Existing rows that are identical can be skipped on PostgreSQL, other databases ignore skipUnchanged and rewrite them.")
+	public void merge(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker, @WebParam(name = "affixes") List<AffixInput> affixes, @WebParam(name = "skipUnchanged") Boolean skipUnchanged) throws ServiceException {
+		insertOrUpdate(connection, transaction, instances, changeTracker, true, affixes, skipUnchanged != null && skipUnchanged);
 	}
 
 	@SuppressWarnings("unchecked")
-	private void insertOrUpdate(String connection, String transaction, List<Object> instances, String changeTracker, boolean merge, List<AffixInput> affixes) throws ServiceException {
+	private void insertOrUpdate(String connection, String transaction, List<Object> instances, String changeTracker, boolean merge, List<AffixInput> affixes, boolean skipUnchanged) throws ServiceException {
 		Map<ComplexType, List<ComplexContent>> group = group(instances);
+		invalidateResultCache(transaction, group.keySet());
+		// affixes can change the target table so we don't buffer those
+		String statement = affixes == null ? (merge ? "merge" : "insert") + "\n" + changeTracker + "\n" + skipUnchanged : null;
+		write(group, connection, transaction, ":generated." + (merge ? "merge" : "insert"), statement, newInsertWriter(connection, transaction, changeTracker, merge, affixes, skipUnchanged));
+	}
+	
+	@WebResult(name = "result")
+	@ServiceDescription(description = "Insert or merge any number of correctly annotated objects. Instead of failing the whole batch, the failing instances are isolated by splitting the batch using savepoints, the other instances are still written in large batches.")
+	public BatchResult insertIsolated(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker, @WebParam(name = "affixes") List<AffixInput> affixes, @WebParam(name = "merge") Boolean merge, @WebParam(name = "skipUnchanged") Boolean skipUnchanged) throws ServiceException {
+		BatchResult result = new BatchResult();
+		List<ComplexContent> contents = new ArrayList<ComplexContent>();
+		List<Object> originals = new ArrayList<Object>();
+		// the position of each instance in the original list (null instances are skipped)
+		List<Integer> indexes = new ArrayList<Integer>();
+		if (instances != null) {
+			for (int i = 0; i < instances.size(); i++) {
+				Object instance = instances.get(i);
+				if (instance != null) {
+					originals.add(instance);
+					indexes.add(i);
+					contents.add(instance instanceof ComplexContent ? (ComplexContent) instance : ComplexContentWrapperFactory.getInstance().getWrapper().wrap(instance));
+				}
+			}
+		}
+		if (contents.isEmpty()) {
+			return result;
+		}
+		boolean isMerge = merge != null && merge;
+		String suffix = ":generated." + (isMerge ? "merge" : "insert");
+		Map<ComplexType, List<ComplexContent>> group = group(new ArrayList<Object>(contents));
+		invalidateResultCache(transaction, group.keySet());
+		// a savepoint only applies to a single connection
+		String connectionId = null;
 		for (ComplexType type : group.keySet()) {
-			List<ComplexContent> contents = group.get(type);
-			String id = type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous";
-			id += ":generated." + (merge ? "merge" : "insert");
-			String typeConnection = connection;
-			// do a lookup for providers that are within the same root folder (= application) as the root service
-			if (typeConnection == null) {
-				typeConnection = new RepositoryDataSourceResolver().getDataSourceId(id);
+			String typeConnection = getConnectionId(type, connection, suffix);
+			if (connectionId == null) {
+				connectionId = typeConnection;
 			}
-			if (typeConnection == null) {
-				throw new ServiceException("JDBC-DYN-1", "Could not figure out the correct jdbc connection to use");
+			else if (typeConnection != null && !typeConnection.equals(connectionId)) {
+				throw new IllegalArgumentException("Failures can only be isolated if all the types are written to the same connection");
 			}
-			JDBCService jdbc = new JDBCService(id);
-			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
-			jdbc.setChangeTracker(toChangeTracker(changeTracker));
-			jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
-			jdbc.setInputGenerated(false);
-			jdbc.setOutputGenerated(false);
-			jdbc.setParameters(unwrap(type));
-			String generateInsert = generateInsert(type, merge);
-			if (generateInsert == null) {
-				continue;
+		}
+		if (connectionId == null) {
+			throw new ServiceException("JDBC-DYN-1", "Could not figure out the correct jdbc connection to use");
+		}
+		Connection transactionConnection = getTransactionConnection(connectionId, transaction);
+		GroupWriter writer = newInsertWriter(connectionId, transaction, changeTracker, isMerge, affixes, skipUnchanged != null && skipUnchanged);
+		isolate(contents, originals, indexes, 0, contents.size(), transactionConnection, writer, result);
+		result.setWritten(contents.size() - result.getRejected().size());
+		return result;
+	}
+	
+	// the connection that the jdbc services will use in this transaction
+	private Connection getTransactionConnection(String connectionId, String transaction) throws ServiceException {
+		Transactionable transactionable = executionContext.getTransactionContext().get(transaction, connectionId);
+		if (transactionable instanceof WriteBuffer) {
+			((WriteBuffer) transactionable).flush();
+		}
+		if (transactionable instanceof ConnectionTransactionable) {
+			return ((ConnectionTransactionable) transactionable).getConnection();
+		}
+		else if (transactionable != null) {
+			throw new IllegalStateException("The transaction is not bound to a jdbc connection: " + connectionId);
+		}
+		Artifact artifact = EAIResourceRepository.getInstance().resolve(connectionId);
+		if (!(artifact instanceof DataSourceWithDialectProviderArtifact)) {
+			throw new IllegalArgumentException("No connection found with id: " + connectionId);
+		}
+		else if (((DataSourceWithDialectProviderArtifact) artifact).isAutoCommit()) {
+			throw new IllegalStateException("Failures can only be isolated if the connection is not autocommitted: " + connectionId);
+		}
+		try {
+			Connection connection = ((DataSourceWithDialectProviderArtifact) artifact).getDataSource().getConnection();
+			executionContext.getTransactionContext().add(transaction, new ConnectionTransactionable(connectionId, connection));
+			return connection;
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Writes the range in one go, if that fails, we roll back to before the attempt and try both halves separately.
+	 * A failing instance is isolated in a logarithmic amount of attempts, the other instances are still written in large batches.
+	 * We split on instances rather than types so an instance that spans multiple tables is written entirely or not at all.
+	 */
+	private void isolate(List<ComplexContent> contents, List<Object> originals, List<Integer> indexes, int from, int to, Connection connection, GroupWriter writer, BatchResult result) throws ServiceException {
+		List<ComplexContent> slice = contents.subList(from, to);
+		// keys that are generated during a failed attempt should be generated again in the next one
+		Map<ComplexContent, List<String>> missingKeys = getMissingKeys(slice);
+		Savepoint savepoint;
+		try {
+			savepoint = connection.setSavepoint();
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+		ServiceException failure = null;
+		try {
+			Map<ComplexType, List<ComplexContent>> group = group(new ArrayList<Object>(slice));
+			for (ComplexType type : group.keySet()) {
+				writer.write(type, group.get(type), executionContext);
+			}
+		}
+		catch (ServiceException e) {
+			failure = e;
+		}
+		try {
+			if (failure == null) {
+				connection.releaseSavepoint(savepoint);
+				return;
+			}
+			connection.rollback(savepoint);
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+		for (ComplexContent content : missingKeys.keySet()) {
+			for (String key : missingKeys.get(content)) {
+				content.set(key, null);
 			}
-//			System.out.println("Generated insert " + id + " => " + generateInsert + " for " + instances +  " in " + group);
-			jdbc.setSql(generateInsert);
-			Element<?> primaryKey = null;
-			// let's get the primary key to see if we have a generated column
-			for (Element<?> child : TypeUtils.getAllChildren(type)) {
-				Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
-				if (property != null && property.getValue()) {
-					primaryKey = child;
-					Object primaryKeyValue = contents.get(0).get(child.getName());
-					if (primaryKeyValue == null) {
-						jdbc.setGeneratedColumn(child.getName());
+		}
+		if (to - from == 1) {
+			SQLException exception = getSQLException(failure);
+			result.getRejected().add(new RejectedInstance(indexes.get(from), originals.get(from), exception == null ? null : exception.getSQLState(), exception == null ? failure.getMessage() : exception.getMessage()));
+		}
+		else {
+			int middle = from + ((to - from) / 2);
+			isolate(contents, originals, indexes, from, middle, connection, writer, result);
+			isolate(contents, originals, indexes, middle, to, connection, writer, result);
+		}
+	}
+	
+	private static Map<ComplexContent, List<String>> getMissingKeys(List<ComplexContent> contents) {
+		// identity based, the equality of the instances is irrelevant
+		Map<ComplexContent, List<String>> missing = new IdentityHashMap<ComplexContent, List<String>>();
+		for (ComplexContent content : contents) {
+			for (ComplexType type : JDBCUtils.getAllTypes(content.getType())) {
+				for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+					Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+					if (property != null && property.getValue() && content.get(child.getName()) == null) {
+						if (!missing.containsKey(content)) {
+							missing.put(content, new ArrayList<String>());
+						}
+						missing.get(content).add(child.getName());
 					}
-					break;
 				}
 			}
-			ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
-			input.set(JDBCService.CONNECTION, typeConnection);
-			input.set(JDBCService.TRANSACTION, transaction);
-			input.set(JDBCService.PARAMETERS, contents);
-			input.set(JDBCService.AFFIX, affixes);
-			ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
-			ComplexContent output = runtime.run(input);
-			if (jdbc.getGeneratedColumn() != null) {
-				List<Object> keys = (List<Object>) output.get(JDBCService.GENERATED_KEYS);
-				int index = 0;
-				for (ComplexContent content : contents) {
-					Object currentValue = content.get(primaryKey.getName());
-					if (currentValue == null && index < keys.size()) {
-						content.set(primaryKey.getName(), keys.get(index++));
-					}
+		}
+		return missing;
+	}
+	
+	private static SQLException getSQLException(Throwable throwable) {
+		while (throwable != null) {
+			if (throwable instanceof SQLException) {
+				return (SQLException) throwable;
+			}
+			throwable = throwable.getCause() == throwable ? null : throwable.getCause();
+		}
+		return null;
+	}
+	
+	/**
+	 * If a key strategy is configured for the type, we assign all the missing primary keys before inserting.
+	 * Without a strategy we rely on the database to generate them.
+	 */
+	private static void assignKeys(ComplexType type, List<ComplexContent> contents, final String connectionId, final ExecutionContext executionContext) throws ServiceException {
+		Element<?> primaryKey = null;
+		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+			Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+			if (property != null && property.getValue()) {
+				primaryKey = child;
+				break;
+			}
+		}
+		if (primaryKey == null) {
+			return;
+		}
+		Class<?> keyClass = ((SimpleType<?>) primaryKey.getType()).getInstanceClass();
+		String strategy = KeyAllocator.getInstance().getStrategy(type instanceof DefinedType ? ((DefinedType) type).getId() : null, EAIRepositoryUtils.uncamelify(getName(type)));
+		if (strategy == null && KeyAllocator.UUID7 && UUID.class.isAssignableFrom(keyClass)) {
+			strategy = "uuid7";
+		}
+		if (strategy == null) {
+			return;
+		}
+		List<ComplexContent> missing = new ArrayList<ComplexContent>();
+		for (ComplexContent content : contents) {
+			if (content.get(primaryKey.getName()) == null) {
+				missing.add(content);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		// formatted as sequence:<name>[:<block size>] or uuid7
+		String [] parts = strategy.split(":");
+		if (parts[0].equals("uuid7")) {
+			for (ComplexContent content : missing) {
+				UUID key = TimeOrderedUUID.next();
+				content.set(primaryKey.getName(), UUID.class.isAssignableFrom(keyClass) ? key : ConverterFactory.getInstance().getConverter().convert(key, keyClass));
+			}
+		}
+		else if (parts[0].equals("sequence") && parts.length >= 2) {
+			int blockSize = parts.length >= 3 ? Integer.parseInt(parts[2]) : KeyAllocator.BLOCK_SIZE;
+			long [] keys = KeyAllocator.getInstance().allocate(connectionId, parts[1], missing.size(), blockSize, new SequenceFetcher() {
+				@Override
+				public long [] fetch(String sequence, int amount) throws ServiceException {
+					return fetchSequence(connectionId, sequence, amount, executionContext);
 				}
+			});
+			for (int i = 0; i < missing.size(); i++) {
+				missing.get(i).set(primaryKey.getName(), ConverterFactory.getInstance().getConverter().convert(keys[i], keyClass));
 			}
 		}
+		else {
+			throw new IllegalArgumentException("Unsupported key strategy '" + strategy + "' for: " + EAIRepositoryUtils.uncamelify(getName(type)));
+		}
 	}
 	
-	@ServiceDescription(description = "Delete any number of correctly annotated objects from the given connection. They will be grouped by type and batch deleted.")
-	public void delete(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker) throws ServiceException {
-		Map<ComplexType, List<ComplexContent>> group = group(instances, false);
-		for (ComplexType typeToDelete : group.keySet()) {
-//			for (ComplexType typeToDelete : JDBCUtils.getAllTypes(type)) {
+	// fetches the amount of values from the sequence in a single round trip
+	@SuppressWarnings("unchecked")
+	private static long [] fetchSequence(String connectionId, String sequence, int amount, ExecutionContext executionContext) throws ServiceException {
+		// only oracle and h2 need the sequence name in the sql itself, we don't allow anything but a (qualified) identifier in there
+		// the amount is always bound so every amount shares the same statement (and cached service)
+		if (!sequence.matches("[\\w$]+(\\.[\\w$]+)?")) {
+			throw new IllegalArgumentException("Invalid sequence name: " + sequence);
+		}
+		String serviceId = connectionId + ":generated.sequence";
+		DatabaseFeatures features = getFeatures(connectionId, serviceId);
+		boolean bindSequence = false;
+		String sql;
+		if (features != null && features.isProduct("Oracle")) {
+			sql = "select " + sequence + ".nextval as value from dual connect by level <= :amount";
+		}
+		else if (features != null && features.isProduct("H2")) {
+			sql = "select next value for " + sequence + " as value from system_range(1, :amount)";
+		}
+		else {
+			sql = "select nextval(cast(:sequence as regclass)) as value from generate_series(1, :amount)";
+			bindSequence = true;
+		}
+		String cacheKey = serviceId + "\n" + sql;
+		JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+		if (jdbc == null) {
+			jdbc = new JDBCService(serviceId);
+			jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+			jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+			jdbc.setInputGenerated(true);
+			jdbc.setOutputGenerated(true);
+			jdbc.setSql(sql);
+			// generated parameters are strings by default, the amount must be bound as a number
+			((ModifiableElement<?>) jdbc.getParameters().get("amount")).setType(SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(Integer.class));
+			jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+		}
+		// sequences are not transactional, we always use the primary connection
+		ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+		input.set(JDBCService.CONNECTION, connectionId);
+		ComplexContent parameters = jdbc.getParameters().newInstance();
+		parameters.set("amount", amount);
+		if (bindSequence) {
+			parameters.set("sequence", sequence);
+		}
+		input.set(JDBCService.PARAMETERS, parameters);
+		ComplexContent output = new ServiceRuntime(jdbc, executionContext).run(input);
+		List<Object> results = (List<Object>) output.get(JDBCService.RESULTS);
+		if (results == null || results.size() < amount) {
+			throw new ServiceException("JDBC-DYN-2", "Could not fetch " + amount + " values from sequence: " + sequence);
+		}
+		long [] values = new long[amount];
+		for (int i = 0; i < amount; i++) {
+			Object single = results.get(i);
+			ComplexContent content = single instanceof ComplexContent ? (ComplexContent) single : ComplexContentWrapperFactory.getInstance().getWrapper().wrap(single);
+			values[i] = ConverterFactory.getInstance().getConverter().convert(content.get("value"), Long.class);
+		}
+		return values;
+	}
+	
+	private GroupWriter newInsertWriter(final String connection, final String transaction, final String changeTracker, final boolean merge, final List<AffixInput> affixes, final boolean skipUnchanged) {
+		return new GroupWriter() {
+			@Override
+			public void write(ComplexType type, List<ComplexContent> contents, ExecutionContext executionContext) throws ServiceException {
+				String id = type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous";
+				id += ":generated." + (merge ? "merge" : "insert");
+				String typeConnection = connection;
+				// do a lookup for providers that are within the same root folder (= application) as the root service
+				if (typeConnection == null) {
+					typeConnection = new RepositoryDataSourceResolver().getDataSourceId(id);
+				}
+				if (typeConnection == null) {
+					throw new ServiceException("JDBC-DYN-1", "Could not figure out the correct jdbc connection to use");
+				}
+				// if we can assign the keys up front, we don't need the generated keys from the database
+				assignKeys(type, contents, typeConnection, executionContext);
+				// skipping identical rows relies on postgresql syntax that the dialects don't translate, other databases simply rewrite them
+				boolean skipIdentical = merge && skipUnchanged && supportsSkipUnchanged(getFeatures(typeConnection, id));
+				String generateInsert = generateInsert(type, merge, 0, skipIdentical);
+				if (generateInsert == null) {
+					return;
+				}
 				Element<?> primaryKey = null;
-				for (Element<?> child : JDBCUtils.getFieldsInTable(typeToDelete)) {
+				String generatedColumn = null;
+				// let's get the primary key to see if we have a generated column
+				for (Element<?> child : TypeUtils.getAllChildren(type)) {
 					Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
 					if (property != null && property.getValue()) {
 						primaryKey = child;
+						Object primaryKeyValue = contents.get(0).get(child.getName());
+						if (primaryKeyValue == null) {
+							generatedColumn = child.getName();
+						}
 						break;
 					}
 				}
-				if (primaryKey == null) {
-					throw new IllegalArgumentException("Could not find primary key");
+				String cacheKey = id + "\n" + changeTracker + "\n" + generatedColumn + "\n" + generateInsert;
+				JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+				if (jdbc == null) {
+					jdbc = new JDBCService(id);
+					jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+					jdbc.setChangeTracker(toChangeTracker(changeTracker));
+					jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+					jdbc.setInputGenerated(false);
+					jdbc.setOutputGenerated(false);
+					jdbc.setParameters(unwrap(type));
+					jdbc.setSql(generateInsert);
+					if (generatedColumn != null) {
+						jdbc.setGeneratedColumn(generatedColumn);
+					}
+					jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+				}
+				// large inserts can be streamed if the database supports it, unless we need the generated keys back or have to track the changes
+				if (!merge && generatedColumn == null && changeTracker == null && affixes == null && BulkCopy.isEnabled(contents.size()) && copy(jdbc, type, typeConnection, transaction, contents, executionContext)) {
+					return;
+				}
+				// otherwise we can send multiple rows per statement, most drivers don't do this for a batch
+				if (generatedColumn == null && changeTracker == null && contents.size() > 1 && supportsMultiRowInsert(getFeatures(typeConnection, id)) && (!merge || isUnique(contents, primaryKey))) {
+					insertMultiRow(id, type, merge, skipIdentical, typeConnection, transaction, contents, affixes, executionContext);
+					return;
 				}
-				
-				List<ComplexContent> contents = group.get(typeToDelete);
-				String id = typeToDelete instanceof DefinedType ? ((DefinedType) typeToDelete).getId() : "$anonymous";
-				id += ":generated.delete";
-				JDBCService jdbc = new JDBCService(id);
-				jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
-				jdbc.setChangeTracker(toChangeTracker(changeTracker));
-				jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
-				jdbc.setInputGenerated(false);
-				jdbc.setOutputGenerated(false);
-				jdbc.setParameters(unwrap(typeToDelete));
-				jdbc.setSql("delete from ~" + EAIRepositoryUtils.uncamelify(getName(typeToDelete)) + " where " + EAIRepositoryUtils.uncamelify(primaryKey.getName()) + " = :" + primaryKey.getName());
 				ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
-				input.set(JDBCService.CONNECTION, connection);
+				input.set(JDBCService.CONNECTION, typeConnection);
 				input.set(JDBCService.TRANSACTION, transaction);
 				input.set(JDBCService.PARAMETERS, contents);
+				input.set(JDBCService.AFFIX, affixes);
 				ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
-				runtime.run(input);
+				ComplexContent output = runtime.run(input);
+				if (jdbc.getGeneratedColumn() != null) {
+					List<Object> keys = (List<Object>) output.get(JDBCService.GENERATED_KEYS);
+					int index = 0;
+					for (ComplexContent content : contents) {
+						Object currentValue = content.get(primaryKey.getName());
+						if (currentValue == null && index < keys.size()) {
+							content.set(primaryKey.getName(), keys.get(index++));
+						}
+					}
+				}
+			}
+		};
+	}
+	
+	private static boolean supportsSkipUnchanged(DatabaseFeatures features) {
+		return features != null && features.isProduct("PostgreSQL");
+	}
+	
+	private static boolean supportsMultiRowInsert(DatabaseFeatures features) {
+		if (!MULTI_ROW_INSERT) {
+			return false;
+		}
+		if (features != null) {
+			for (String product : MULTI_ROW_INSERT_EXCLUDED) {
+				if (features.isProduct(product)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	// a merge can not update the same row twice in one statement
+	private static boolean isUnique(List<ComplexContent> contents, Element<?> primaryKey) {
+		if (primaryKey == null) {
+			return false;
+		}
+		Set<Object> keys = new HashSet<Object>();
+		for (ComplexContent content : contents) {
+			if (!keys.add(content.get(primaryKey.getName()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// the same columns as the generated insert
+	private List<Element<?>> getInsertColumns(ComplexType type) {
+		List<Element<?>> columns = new ArrayList<Element<?>>();
+		for (Element<?> child : JDBCUtils.getFieldsInTable(type)) {
+			Value<Boolean> generatedProperty = child.getProperty(GeneratedProperty.getInstance());
+			if (generatedProperty != null && generatedProperty.getValue() != null && generatedProperty.getValue()) {
+				continue;
+			}
+			columns.add(child);
+		}
+		return columns;
+	}
+	
+	// full statements are as large as the parameter limit allows, the remainder is split in powers of two to limit the amount of distinct statements
+	private static int getRowsPerStatement(int remaining, int maxRows) {
+		return remaining >= maxRows ? maxRows : Integer.highestOneBit(remaining);
+	}
+	
+	private void insertMultiRow(String id, ComplexType type, boolean merge, boolean skipUnchanged, String connection, String transaction, List<ComplexContent> contents, List<AffixInput> affixes, ExecutionContext executionContext) throws ServiceException {
+		List<Element<?>> columns = getInsertColumns(type);
+		Map<String, Element<?>> columnsByName = new HashMap<String, Element<?>>();
+		for (Element<?> column : columns) {
+			columnsByName.put(column.getName(), column);
+		}
+		int maxRows = Math.max(1, MAX_PARAMETERS / columns.size());
+		int offset = 0;
+		while (offset < contents.size()) {
+			int rows = getRowsPerStatement(contents.size() - offset, maxRows);
+			String sql = generateInsert(type, merge, rows, skipUnchanged);
+			String cacheKey = id + "\n" + sql;
+			JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+			if (jdbc == null) {
+				jdbc = new JDBCService(id);
+				jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+				jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+				jdbc.setInputGenerated(true);
+				jdbc.setOutputGenerated(false);
+				jdbc.setSql(sql);
+				// the parameters are named after the original fields, copy their typing
+				for (Element<?> element : TypeUtils.getAllChildren(jdbc.getParameters())) {
+					Element<?> original = columnsByName.get(element.getName().replaceAll("_[0-9]+$", ""));
+					if (original != null) {
+						((ModifiableElement<?>) element).setType(original.getType());
+						for (Value<?> value : original.getProperties()) {
+							if (!value.getProperty().getName().equals("name")) {
+								((ModifiableElement<?>) element).setProperty(value);
+							}
+						}
+					}
+				}
+				jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+			}
+			ComplexContent parameters = jdbc.getParameters().newInstance();
+			for (int i = 0; i < rows; i++) {
+				ComplexContent content = contents.get(offset + i);
+				for (Element<?> column : columns) {
+					parameters.set(column.getName() + "_" + i, content.get(column.getName()));
+				}
+			}
+			ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+			input.set(JDBCService.CONNECTION, connection);
+			input.set(JDBCService.TRANSACTION, transaction);
+			input.set(JDBCService.PARAMETERS, parameters);
+			input.set(JDBCService.AFFIX, affixes);
+			new ServiceRuntime(jdbc, executionContext).run(input);
+			offset += rows;
+		}
+	}
+	
+	private boolean copy(JDBCService jdbc, ComplexType type, String connection, String transaction, List<ComplexContent> contents, ExecutionContext executionContext) throws ServiceException {
+		List<Element<?>> columns = getInsertColumns(type);
+		List<String> columnNames = new ArrayList<String>();
+		for (Element<?> column : columns) {
+			columnNames.add(EAIRepositoryUtils.uncamelify(column.getName()));
+		}
+		if (!BulkCopy.isSupported(columns)) {
+			return false;
+		}
+		Artifact provider = EAIResourceRepository.getInstance().resolve(connection);
+		List<AffixMapping> affixes = provider instanceof DataSourceWithAffixes ? ((DataSourceWithAffixes) provider).getAffixes() : null;
+		String table = JDBCServiceInstance.replaceAffixes(jdbc, affixes, "~" + EAIRepositoryUtils.uncamelify(getName(type))).replace("~", "");
+		try {
+			return BulkCopy.copy(executionContext, connection, transaction, table, columns, columnNames, contents);
+		}
+		catch (SQLException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	@ServiceDescription(description = "Delete any number of correctly annotated objects from the given connection. They will be grouped by type and batch deleted.")
+	public void delete(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @WebParam(name = "instances") List<Object> instances, @WebParam(name = "changeTracker") String changeTracker) throws ServiceException {
+		Map<ComplexType, List<ComplexContent>> group = group(instances, false);
+		invalidateResultCache(transaction, group.keySet());
+		write(group, connection, transaction, ":generated.delete", "delete\n" + changeTracker, new GroupWriter() {
+			@Override
+			public void write(ComplexType typeToDelete, List<ComplexContent> contents, ExecutionContext executionContext) throws ServiceException {
+//			for (ComplexType typeToDelete : JDBCUtils.getAllTypes(type)) {
+					Element<?> primaryKey = null;
+					for (Element<?> child : JDBCUtils.getFieldsInTable(typeToDelete)) {
+						Value<Boolean> property = child.getProperty(PrimaryKeyProperty.getInstance());
+						if (property != null && property.getValue()) {
+							primaryKey = child;
+							break;
+						}
+					}
+					if (primaryKey == null) {
+						throw new IllegalArgumentException("Could not find primary key");
+					}
+					
+					String id = typeToDelete instanceof DefinedType ? ((DefinedType) typeToDelete).getId() : "$anonymous";
+					id += ":generated.delete";
+					String sql = "delete from ~" + EAIRepositoryUtils.uncamelify(getName(typeToDelete)) + " where " + EAIRepositoryUtils.uncamelify(primaryKey.getName()) + " = :" + primaryKey.getName();
+					String cacheKey = id + "\n" + changeTracker + "\n" + sql;
+					JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+					if (jdbc == null) {
+						jdbc = new JDBCService(id);
+						jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+						jdbc.setChangeTracker(toChangeTracker(changeTracker));
+						jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+						jdbc.setInputGenerated(false);
+						jdbc.setOutputGenerated(false);
+						jdbc.setParameters(unwrap(typeToDelete));
+						jdbc.setSql(sql);
+						jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+					}
+					ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+					input.set(JDBCService.CONNECTION, connection);
+					input.set(JDBCService.TRANSACTION, transaction);
+					input.set(JDBCService.PARAMETERS, contents);
+					ServiceRuntime runtime = new ServiceRuntime(jdbc, executionContext);
+					runtime.run(input);
 //			}
-		}		
+			}
+		});
+	}
+	
+	// deletes the ids in as few statements as possible, using an array if the database supports it
+	private void deleteByIds(String serviceId, String tableName, String keyName, Element<?> primaryKey, String connection, String transaction, List<Object> ids) throws ServiceException {
+		SQLDialect dialect = getDialect(connection, serviceId);
+		boolean useArray = dialect != null && dialect.hasArraySupport(primaryKey);
+		List<Object> distinctIds = new ArrayList<Object>(new LinkedHashSet<Object>(ids));
+		distinctIds.remove(null);
+		for (List<Object> chunk : chunk(distinctIds, useArray ? MAX_ARRAY_SIZE : MAX_PARAMETERS, !useArray)) {
+			String sql = "delete from ~" + tableName + " where " + keyName + (useArray ? " = any(:ids)" : " in (" + getParameterList("id", chunk.size()) + ")");
+			String cacheKey = serviceId + "\n" + sql;
+			JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+			if (jdbc == null) {
+				jdbc = new JDBCService(serviceId);
+				jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+				jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+				jdbc.setInputGenerated(true);
+				jdbc.setOutputGenerated(false);
+				jdbc.setSql(sql);
+				for (Element<?> element : TypeUtils.getAllChildren(jdbc.getParameters())) {
+					((ModifiableElement<?>) element).setType(primaryKey.getType());
+					if (useArray) {
+						element.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
+					}
+				}
+				jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+			}
+			ComplexContent parameters = jdbc.getParameters().newInstance();
+			if (useArray) {
+				parameters.set("ids", chunk);
+			}
+			else {
+				for (int i = 0; i < chunk.size(); i++) {
+					parameters.set("id" + i, chunk.get(i));
+				}
+			}
+			ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
+			input.set(JDBCService.CONNECTION, connection);
+			input.set(JDBCService.TRANSACTION, transaction);
+			input.set(JDBCService.PARAMETERS, parameters);
+			new ServiceRuntime(jdbc, executionContext).run(input);
+		}
 	}
 	
 	@ServiceDescription(description = "Delete any number of correctly annotated objects from the given connection. They will be grouped by type and batch deleted.")
 	public void deleteById(@WebParam(name = "connection") String connection, @WebParam(name = "transaction") String transaction, @NotNull @WebParam(name = "typeId") String typeId, @WebParam(name = "ids") List<Object> ids, @WebParam(name = "changeTracker") String changeTracker) throws ServiceException {
 		if (typeId != null && ids != null && !ids.isEmpty()) {
 			ComplexType type = (ComplexType) EAIResourceRepository.getInstance().resolve(typeId);
+			invalidateResultCache(transaction, JDBCUtils.getAllTypes(type));
+			// pending writes might reference the rows we are about to delete
+			flushWrites(connection, transaction, typeId + ":generated.deleteById", null, executionContext);
 			for (ComplexType typeToDelete : JDBCUtils.getAllTypes(type)) {
 				Element<?> primaryKey = null;
 				for (Element<?> child : JDBCUtils.getFieldsInTable(typeToDelete)) {
@@ -1665,26 +3818,37 @@ public class Services {
 				
 				String id = type instanceof DefinedType ? ((DefinedType) type).getId() : "$anonymous";
 				id += ":generated.deleteById";
-				JDBCService jdbc = new JDBCService(id);
-				jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
-				jdbc.setChangeTracker(toChangeTracker(changeTracker));
-				jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
-				jdbc.setInputGenerated(true);
-				jdbc.setOutputGenerated(false);
 				String tableName = EAIRepositoryUtils.uncamelify(getName(typeToDelete)).toLowerCase();
 				String keyName = EAIRepositoryUtils.uncamelify(primaryKey.getName());
-				jdbc.setSql("delete from ~" + tableName + " where " + keyName + " = :" + keyName);
+				// without change tracking we don't need an execution per id
+				if (changeTracker == null) {
+					deleteByIds(id, tableName, keyName, primaryKey, connection, transaction, ids);
+					continue;
+				}
+				String sql = "delete from ~" + tableName + " where " + keyName + " = :" + keyName;
+				String cacheKey = id + "\n" + changeTracker + "\n" + sql;
+				JDBCService jdbc = GeneratedServiceCache.getInstance().get(cacheKey);
+				if (jdbc == null) {
+					jdbc = new JDBCService(id);
+					jdbc.setExecutionContextProvider(EAIResourceRepository.getInstance());
+					jdbc.setChangeTracker(toChangeTracker(changeTracker));
+					jdbc.setDataSourceResolver(new RepositoryDataSourceResolver());
+					jdbc.setInputGenerated(true);
+					jdbc.setOutputGenerated(false);
+					jdbc.setSql(sql);
+					Element<?> element = jdbc.getParameters().get(keyName);
+					((ModifiableElement<?>) element).setType(primaryKey.getType());
+					// make sure we mark it as primary for change tracking purposes
+					element.setProperty(new ValueImpl<Boolean>(PrimaryKeyProperty.getInstance(), true));
+					// we also need a correct collection name for change tracking
+					element.setProperty(new ValueImpl<String>(CollectionNameProperty.getInstance(), tableName));
+					
+					// deleting with a list of ids is not compatible with change tracking
+					// deleting with a list of parameters with a single id each, is compatible!
+//					element.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
+					jdbc = GeneratedServiceCache.getInstance().put(cacheKey, jdbc);
+				}
 				ComplexContent input = jdbc.getServiceInterface().getInputDefinition().newInstance();
-				Element<?> element = jdbc.getParameters().get(keyName);
-				((ModifiableElement<?>) element).setType(primaryKey.getType());
-				// make sure we mark it as primary for change tracking purposes
-				element.setProperty(new ValueImpl<Boolean>(PrimaryKeyProperty.getInstance(), true));
-				// we also need a correct collection name for change tracking
-				element.setProperty(new ValueImpl<String>(CollectionNameProperty.getInstance(), tableName));
-				
-				// deleting with a list of ids is not compatible with change tracking
-				// deleting with a list of parameters with a single id each, is compatible!
-//				element.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
 				input.set(JDBCService.CONNECTION, connection);
 				input.set(JDBCService.TRANSACTION, transaction);
 				for (int i = 0; i < ids.size(); i++) {
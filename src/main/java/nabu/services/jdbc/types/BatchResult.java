@@ -0,0 +1,45 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package nabu.services.jdbc.types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlType;
+
+// the outcome of a batch where failing instances are isolated instead of failing the whole batch
+@XmlType(propOrder = { "written", "rejected" })
+public class BatchResult {
+	
+	private long written;
+	private List<RejectedInstance> rejected = new ArrayList<RejectedInstance>();
+	
+	public long getWritten() {
+		return written;
+	}
+	public void setWritten(long written) {
+		this.written = written;
+	}
+	
+	public List<RejectedInstance> getRejected() {
+		return rejected;
+	}
+	public void setRejected(List<RejectedInstance> rejected) {
+		this.rejected = rejected;
+	}
+}
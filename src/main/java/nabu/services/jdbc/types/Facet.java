@@ -0,0 +1,78 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package nabu.services.jdbc.types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlType;
+
+// the amount of rows per distinct value of a field, the filters on the field itself are not applied (otherwise you would only ever see the selected values)
+@XmlType(propOrder = { "name", "values" })
+public class Facet {
+	
+	private String name;
+	private List<FacetValue> values = new ArrayList<FacetValue>();
+	
+	public Facet() {
+		// auto
+	}
+	
+	public Facet(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public List<FacetValue> getValues() {
+		return values;
+	}
+	public void setValues(List<FacetValue> values) {
+		this.values = values;
+	}
+
+	@XmlType(propOrder = { "value", "amount" })
+	public static class FacetValue {
+		private Object value;
+		private long amount;
+		
+		public FacetValue() {
+			// auto
+		}
+		public FacetValue(Object value, long amount) {
+			this.value = value;
+			this.amount = amount;
+		}
+		public Object getValue() {
+			return value;
+		}
+		public void setValue(Object value) {
+			this.value = value;
+		}
+		public long getAmount() {
+			return amount;
+		}
+		public void setAmount(long amount) {
+			this.amount = amount;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package nabu.services.jdbc.types;
+
+import javax.xml.bind.annotation.XmlType;
+
+// a window that is navigated using keyset pagination, there is no offset, only a token that points to the next window
+@XmlType(propOrder = { "hasNext", "pageSize", "continuationToken" })
+public class KeysetWindow {
+	
+	private boolean hasNext;
+	private long pageSize;
+	private String continuationToken;
+
+	public static KeysetWindow build(Boolean hasNext, long rowCount, Integer pageSize, String continuationToken) {
+		KeysetWindow window = new KeysetWindow();
+		if (pageSize == null) {
+			pageSize = (int) rowCount;
+		}
+		if (hasNext == null) {
+			hasNext = continuationToken != null && rowCount == pageSize.longValue();
+		}
+		window.setPageSize(pageSize);
+		window.setHasNext(hasNext);
+		window.setContinuationToken(hasNext ? continuationToken : null);
+		return window;
+	}
+	
+	public KeysetWindow() {
+		// auto
+	}
+
+	public boolean isHasNext() {
+		return hasNext;
+	}
+
+	public void setHasNext(boolean hasNext) {
+		this.hasNext = hasNext;
+	}
+
+	public long getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(long pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
+	
+}
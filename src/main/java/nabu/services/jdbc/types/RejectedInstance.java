@@ -0,0 +1,68 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package nabu.services.jdbc.types;
+
+import javax.xml.bind.annotation.XmlType;
+
+// an instance that could not be written, the index refers to its position in the original list
+@XmlType(propOrder = { "index", "instance", "sqlState", "message" })
+public class RejectedInstance {
+	
+	private int index;
+	private Object instance;
+	private String sqlState, message;
+	
+	public RejectedInstance() {
+		// auto
+	}
+	
+	public RejectedInstance(int index, Object instance, String sqlState, String message) {
+		this.index = index;
+		this.instance = instance;
+		this.sqlState = sqlState;
+		this.message = message;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public Object getInstance() {
+		return instance;
+	}
+	public void setInstance(Object instance) {
+		this.instance = instance;
+	}
+
+	public String getSqlState() {
+		return sqlState;
+	}
+	public void setSqlState(String sqlState) {
+		this.sqlState = sqlState;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+	public void setMessage(String message) {
+		this.message = message;
+	}
+}
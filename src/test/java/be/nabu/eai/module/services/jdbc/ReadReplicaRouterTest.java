@@ -0,0 +1,173 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.eai.module.services.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.jdbc.api.DynamicDataSourceResolver;
+
+/**
+ * Two embedded databases stand in for a primary and its replica, each knows who it is.
+ */
+public class ReadReplicaRouterTest extends TestCase {
+
+	private Map<String, String> urls = new HashMap<String, String>();
+	private Connection primary, replica;
+	
+	@Override
+	protected void setUp() throws Exception {
+		urls.put("test.primary", "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1");
+		urls.put("test.replica", "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1");
+		primary = create("test.primary");
+		replica = create("test.replica");
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		primary.close();
+		replica.close();
+	}
+	
+	public void testReadsAreRoutedToTheReplica() throws ServiceException {
+		ReadReplicaRouter router = newRouter(Arrays.asList("test.replica"));
+		assertEquals("test.replica", router.read("test.services.search", null, null, new Query(null)));
+	}
+	
+	public void testReadsInATransactionStayOnThePrimary() throws ServiceException {
+		ReadReplicaRouter router = newRouter(Arrays.asList("test.replica"));
+		assertEquals("test.primary", router.read("test.services.search", null, "transaction", new Query(null)));
+		assertEquals("test.replica", router.read("test.services.search", "test.replica", null, new Query(null)));
+	}
+	
+	public void testReadsSeeTheWritesOfTheDefaultTransaction() throws SQLException, ServiceException {
+		ReadReplicaRouter router = newRouter(Arrays.asList("test.replica"));
+		primary.setAutoCommit(false);
+		try {
+			Statement statement = primary.createStatement();
+			try {
+				statement.execute("update origin set name = 'test.primary.uncommitted'");
+			}
+			finally {
+				statement.close();
+			}
+			// the default transaction has the primary open, the read must go there and see the uncommitted change
+			assertEquals("test.primary.uncommitted", router.read("test.services.search", null, null, new Query(primary)));
+		}
+		finally {
+			primary.rollback();
+			primary.setAutoCommit(true);
+		}
+	}
+	
+	public void testUnconfiguredDataSourcesStayOnThePrimary() {
+		ReadReplicaRouter router = newRouter(Arrays.asList("test.replica"));
+		assertNull(router.acquire("other.services.search"));
+	}
+	
+	public void testLeastOutstandingReplicaWins() {
+		ReadReplicaRouter router = newRouter(Arrays.asList("test.replica", "test.replica2"));
+		String first = router.acquire("test.services.search");
+		String second = router.acquire("test.services.search");
+		assertFalse(first.equals(second));
+		router.release(first);
+		assertEquals(first, router.acquire("test.services.search"));
+	}
+	
+	private ReadReplicaRouter newRouter(List<String> replicas) {
+		Map<String, List<String>> configuration = new HashMap<String, List<String>>();
+		configuration.put("test.primary", replicas);
+		return new ReadReplicaRouter(configuration, new DynamicDataSourceResolver() {
+			@Override
+			public String getDataSourceId(String forId) {
+				return forId.startsWith("test.") ? "test.primary" : "other.primary";
+			}
+		});
+	}
+	
+	/**
+	 * Reads the origin on the connection the router picks, the open connection plays the part of the default transaction
+	 */
+	private class Query implements ReadReplicaRouter.Read<String> {
+		private Connection open;
+		
+		public Query(Connection open) {
+			this.open = open;
+		}
+		
+		@Override
+		public boolean isOpen(String dataSourceId) {
+			return open != null && "test.primary".equals(dataSourceId);
+		}
+		
+		@Override
+		public String run(String connectionId) throws ServiceException {
+			try {
+				if (connectionId == null && open != null) {
+					return whoAmI(open);
+				}
+				Connection connection = DriverManager.getConnection(urls.get(connectionId == null ? "test.primary" : connectionId));
+				try {
+					return whoAmI(connection);
+				}
+				finally {
+					connection.close();
+				}
+			}
+			catch (SQLException e) {
+				throw new ServiceException(e);
+			}
+		}
+	}
+	
+	private Connection create(String dataSourceId) throws SQLException {
+		Connection connection = DriverManager.getConnection(urls.get(dataSourceId));
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute("create table if not exists origin (name varchar(64))");
+			statement.execute("delete from origin");
+			statement.execute("insert into origin values ('" + dataSourceId + "')");
+		}
+		finally {
+			statement.close();
+		}
+		return connection;
+	}
+	
+	private String whoAmI(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet result = statement.executeQuery("select name from origin");
+			result.next();
+			return result.getString(1);
+		}
+		finally {
+			statement.close();
+		}
+	}
+}